@@ -0,0 +1,104 @@
+package com.hangzhoudianzi.demo.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 排课引擎的基准测试
+ * <p>
+ * 不启动Spring、不连接数据库，按参数用 {@link SyntheticDataset} 生成课程、教师、教室，直接调用遗传算法的各个步骤。
+ * 运行方式：mvn -Pjmh test-compile exec:exec，默认附带 -prof gc 输出每次操作的分配量。
+ * 只运行部分基准或调整参数时追加JMH参数，例如 -Djmh.args="-prof gc -p courseCount=40 calculateFitness"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScheduleEngineBenchmark {
+    // 参与排课的班级数
+    private static final int CLASS_COUNT = 4;
+    private static final int POPULATION_SIZE = 30;
+
+    @Param({"40", "400"})
+    public int courseCount;
+
+    @Param({"10", "100"})
+    public int teacherCount;
+
+    @Param({"8", "80"})
+    public int roomCount;
+
+    private final ScheduleService scheduleService = new ScheduleService();
+    private ScheduleIndex index;
+    private int[][] preferredTeachers;
+    private List<ScheduleService.Chromosome> population;
+    private ScheduleService.Chromosome parent1;
+    private ScheduleService.Chromosome parent2;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticDataset dataset = SyntheticDataset.generate(
+                new SyntheticDataset.Scale("jmh", courseCount, teacherCount, roomCount, CLASS_COUNT), 42L);
+        index = new ScheduleIndex(dataset.courses, dataset.teachers, dataset.classrooms, 1, 2, 3, 4);
+        preferredTeachers = new int[CLASS_COUNT][courseCount];
+        for (int[] teachers : preferredTeachers) {
+            Arrays.fill(teachers, -1);
+        }
+        random = new SplittableRandom(42);
+        population = scheduleService.initializePopulation(index, preferredTeachers, random, POPULATION_SIZE);
+        for (ScheduleService.Chromosome chromosome : population) {
+            scheduleService.evaluate(chromosome, index);
+        }
+        parent1 = population.get(0);
+        parent2 = population.get(1);
+    }
+
+    @Benchmark
+    public double calculateFitness() {
+        return ScheduleService.calculateFitness(parent1, index);
+    }
+
+    @Benchmark
+    public ScheduleService.Chromosome crossover() {
+        ScheduleService.Chromosome child1 = new ScheduleService.Chromosome(parent1);
+        ScheduleService.Chromosome child2 = new ScheduleService.Chromosome(parent2);
+        scheduleService.crossover(child1, child2, random);
+        return child1;
+    }
+
+    /**
+     * 变异后做增量评估，与繁殖子代时的用法一致
+     */
+    @Benchmark
+    public double mutate() {
+        ScheduleService.Chromosome child = new ScheduleService.Chromosome(parent1);
+        scheduleService.mutate(child, index, random);
+        scheduleService.evaluate(child, index);
+        return child.fitness;
+    }
+
+    @Benchmark
+    public ScheduleService.Chromosome tournamentSelection() {
+        return scheduleService.tournamentSelection(population, random);
+    }
+
+    /**
+     * 一整代：精英保留、选择、交叉、变异和评估，始终从同一个父代种群繁殖
+     */
+    @Benchmark
+    public List<ScheduleService.Chromosome> generation() {
+        return scheduleService.breedNextGeneration(population, index, random, null);
+    }
+
+    @Benchmark
+    public ScheduleService.Chromosome generateRandomChromosome() {
+        return scheduleService.generateRandomChromosome(index, preferredTeachers, random);
+    }
+}
@@ -0,0 +1,42 @@
+package com.hangzhoudianzi.demo;
+
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * 把日期时间列直接读成字符串，格式与 java.util.Date.toString() 相同，
+ * 查询结果映射到 DTO 时与先查出实体再转换得到的字符串一致
+ */
+public class DateStringTypeHandler extends BaseTypeHandler<String> {
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, String parameter, JdbcType jdbcType) throws SQLException {
+        ps.setString(i, parameter);
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return format(rs.getTimestamp(columnName));
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return format(rs.getTimestamp(columnIndex));
+    }
+
+    @Override
+    public String getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return format(cs.getTimestamp(columnIndex));
+    }
+
+    private String format(Timestamp value) {
+        return value != null ? new Date(value.getTime()).toString() : null;
+    }
+}
@@ -0,0 +1,134 @@
+package com.hangzhoudianzi.demo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 自动排课相关配置，对应 application.yaml 中的 schedule 节点
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "schedule")
+public class ScheduleProperties {
+
+    // 遗传算法参数
+    private Ga ga = new Ga();
+
+    // 岛屿模型参数
+    private Island island = new Island();
+
+    // 遗传算法之后的局部搜索参数
+    private LocalSearch localSearch = new LocalSearch();
+
+    // 约束传播求解参数
+    private Csp csp = new Csp();
+
+    // 软约束参数
+    private Constraints constraints = new Constraints();
+
+    // 排课结果缓存参数
+    private Cache cache = new Cache();
+
+    // 异步排课任务参数
+    private Job job = new Job();
+
+    // 排课进度推送参数
+    private Progress progress = new Progress();
+
+    // 排课结果保存参数
+    private Persist persist = new Persist();
+
+    @Data
+    public static class Ga {
+        // 并行繁殖子代的线程数，小于等于1时在排课线程上顺序执行
+        private int parallelism = 1;
+    }
+
+    @Data
+    public static class Island {
+        // 岛屿（子种群）数量，小于等于1时不使用岛屿模型
+        private int count = 1;
+        // 每隔多少代迁移一次
+        private int migrationInterval = 5;
+        // 每次从每个岛屿迁出的最优个体数
+        private int migrants = 2;
+    }
+
+    @Data
+    public static class LocalSearch {
+        public enum Method {
+            NONE,        // 不做局部搜索
+            ANNEALING,   // 模拟退火
+            TABU         // 禁忌搜索
+        }
+
+        private Method method = Method.NONE;
+        // 局部搜索的时间预算（毫秒）
+        private long timeBudgetMillis = 500;
+        // 最多尝试的改动次数，大于0时指定随机种子可以得到完全相同的结果；0表示只受时间限制
+        private int maxIterations = 0;
+        // 模拟退火的初始温度和终止温度，温度按时间几何下降
+        private double initialTemperature = 5.0;
+        private double finalTemperature = 0.05;
+        // 禁忌搜索：改动过的基因在多少轮内不再改动
+        private int tabuTenure = 10;
+        // 禁忌搜索：每轮抽样的候选改动数
+        private int tabuCandidates = 20;
+    }
+
+    @Data
+    public static class Csp {
+        // 约束传播求解的时间预算（毫秒），用完仍未找到无冲突课表时改用遗传算法
+        private long timeBudgetMillis = 5000;
+        // 第一轮搜索允许的失败次数，超过后随机重启，每次重启放宽一半
+        private int failLimit = 200;
+    }
+
+    @Data
+    public static class Constraints {
+        // 约束名 -> 权重，覆盖默认权重，0表示关闭；只对排课设置中启用的约束生效
+        private Map<String, Integer> weights = new LinkedHashMap<>();
+    }
+
+    @Data
+    public static class Cache {
+        // 是否缓存排课结果，只缓存指定了随机种子的排课
+        private boolean enabled = true;
+        // 最多缓存的结果数，超过时淘汰最久未使用的
+        private int maxEntries = 20;
+        // 缓存的结果保留多少分钟
+        private long ttlMinutes = 60;
+    }
+
+    @Data
+    public static class Job {
+        // 同时运行的排课任务数，其余任务排队
+        private int threads = 2;
+        // 内存中最多保留的任务数，包括排队、运行中和已结束的任务
+        private int maxJobs = 100;
+        // 已结束的任务保留多少分钟
+        private long ttlMinutes = 30;
+    }
+
+    @Data
+    public static class Progress {
+        // 两次进度事件之间的最小间隔（毫秒），同时也是推送间隔
+        private long minIntervalMillis = 200;
+        // 每个订阅者缓冲的事件数，满了丢弃最旧的
+        private int bufferSize = 16;
+        // 推送事件的最大线程数，每个订阅者同一时间最多占用一个，慢客户端不会拖住其他订阅者
+        private int senderThreads = 16;
+        // SSE连接的超时时间（毫秒），到期关闭连接，客户端重新订阅时先收到当前状态
+        private long emitterTimeoutMillis = 30 * 60 * 1000L;
+    }
+
+    @Data
+    public static class Persist {
+        // 每条多行INSERT插入的记录数
+        private int batchSize = 500;
+    }
+}
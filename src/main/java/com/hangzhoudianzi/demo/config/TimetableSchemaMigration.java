@@ -0,0 +1,44 @@
+package com.hangzhoudianzi.demo.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 课表版本化所需的表结构迁移
+ * <p>
+ * 所有课表查询都依赖 timetable.version 列和 timetable_version 表，
+ * 启动时检查该列是否存在，不存在时执行 db/timetable-version.sql，已有部署升级后无需手工改表。
+ */
+@Component
+public class TimetableSchemaMigration {
+    static final String SCRIPT = "db/timetable-version.sql";
+
+    @Autowired
+    private DataSource dataSource;
+
+    @PostConstruct
+    public void migrate() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            if (hasVersionColumn(connection)) {
+                return;
+            }
+            System.out.println("timetable 表缺少 version 列，执行 " + SCRIPT);
+            ScriptUtils.executeSqlScript(connection, new ClassPathResource(SCRIPT));
+        }
+    }
+
+    private static boolean hasVersionColumn(Connection connection) throws SQLException {
+        try (ResultSet columns = connection.getMetaData()
+                .getColumns(connection.getCatalog(), null, "timetable", "version")) {
+            return columns.next();
+        }
+    }
+}
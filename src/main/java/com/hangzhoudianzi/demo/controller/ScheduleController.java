@@ -2,13 +2,12 @@ package com.hangzhoudianzi.demo.controller;
 import com.alibaba.excel.EasyExcel;
 
 import com.hangzhoudianzi.demo.mapper.CourseMapper;
-import com.hangzhoudianzi.demo.pojo.people.Course;
-import com.hangzhoudianzi.demo.pojo.people.Teacher;
 import com.hangzhoudianzi.demo.pojo.resource.Classroom;
 import com.hangzhoudianzi.demo.pojo.resource.Schedule;
 import com.hangzhoudianzi.demo.pojo.resource.Timetable;
 import com.hangzhoudianzi.demo.service.*;
 import com.hangzhoudianzi.demo.pojo.dto.TimetableDTO;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
@@ -17,9 +16,9 @@ import java.io.IOException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/schedule")
@@ -29,27 +28,49 @@ public class ScheduleController {
     @Autowired
     private TimetableService timetableService;
     @Autowired
-    private CourseService courseService;
-    @Autowired
-    private TeacherService teacherService;
-    @Autowired
     private ClassroomService classroomService;
 
 
-    // 自动排课接口
+    // 自动排课接口，指定seed时相同数据得到相同课表
+    // engine=CSP 时先用约束传播搜索无冲突课表，找不到时改用遗传算法
+    // timeBudgetMillis 为时间预算，持续改进到截止时间，例如交互使用5000、夜间批量600000
     @PostMapping("/autoSchedule/{classId}")
-    public String autoSchedule(@PathVariable Integer classId) {
+    public String autoSchedule(@PathVariable Integer classId, @RequestParam(required = false) Long seed,
+                               @RequestParam(defaultValue = "GA") ScheduleJob.Engine engine,
+                               @RequestParam(required = false) Long timeBudgetMillis) {
         if (classId == null || classId <= 0) {
             return "班级ID不能为空或小于等于0";
         }
+        if (timeBudgetMillis != null && timeBudgetMillis <= 0) {
+            return "时间预算必须大于0";
+        }
         try {
             // 检查班级是否已经排过课程
             List<Timetable> existingTimetables = timetableService.getTimetablesByClassId(classId);
             if (!existingTimetables.isEmpty()) {
-                return "第" + classId + "班已经排过课程，如需重新排课请先清空原有课表";
+                return "第" + classId + "班已经排过课程，如需重新排课请先清空原有课表，调整个别课程请使用增量排课";
             }
-            scheduleService.autoSchedule(classId);
-            return "已完成第" + classId + "班的排课";
+            ScheduleJob job = scheduleService.autoSchedule(ScheduleJob.singleClass(classId, seed, true)
+                    .withEngine(engine).withTimeBudget(timeBudgetMillis));
+            return "已完成第" + classId + "班的排课" + workSummary(job);
+        } catch (Exception e) {
+            return "排课失败：" + e.getMessage();
+        }
+    }
+
+    // 增量排课接口：保留现有课表，只为新增或变化的课程（courseIds）重新安排时间和教室
+    @PostMapping("/reschedule/{classId}")
+    public String reschedule(@PathVariable Integer classId,
+                             @RequestParam(required = false) List<String> courseIds,
+                             @RequestParam(required = false) Long seed,
+                             @RequestParam(defaultValue = "GA") ScheduleJob.Engine engine) {
+        if (classId == null || classId <= 0) {
+            return "班级ID不能为空或小于等于0";
+        }
+        try {
+            int changed = scheduleService.reschedule(classId,
+                    courseIds != null ? courseIds : Collections.emptyList(), seed, engine);
+            return "已为第" + classId + "班重新安排" + changed + "门课程";
         } catch (Exception e) {
             return "排课失败：" + e.getMessage();
         }
@@ -64,34 +85,16 @@ public class ScheduleController {
 
     // 查询所有课表
     @GetMapping("/timetables")
+    @Timed(value = "schedule.timetables.read", histogram = true)
     public List<TimetableDTO> getAllTimetables() {
-        List<Timetable> timetables = timetableService.getAllTimetables();
-        return timetables.stream().map(timetable -> {
-            Course course = timetable.getCourseId() != null ? courseService.getCourseById(timetable.getCourseId()) : null;
-            Teacher teacher = timetable.getTeacherId() != null ? teacherService.getTeacherById(timetable.getTeacherId()) : null;
-            
-            TimetableDTO dto = TimetableDTO.fromTimetableAndCourse(timetable, course);
-            if(teacher != null) {
-                dto.setTeacherName(teacher.getName());
-            }
-            return dto;
-        }).collect(Collectors.toList());
+        return timetableService.getTimetableDTOs();
     }
 
     // 按班级查询课表
     @GetMapping("/class/{classId}")
+    @Timed(value = "schedule.timetables.read", histogram = true)
     public List<TimetableDTO> getClassTimetables(@PathVariable Integer classId) {
-        List<Timetable> timetables = timetableService.getTimetablesByClassId(classId);
-        return timetables.stream().map(timetable -> {
-            Course course = timetable.getCourseId() != null ? courseService.getCourseById(timetable.getCourseId()) : null;
-            Teacher teacher = timetable.getTeacherId() != null ? teacherService.getTeacherById(timetable.getTeacherId()) : null;
-            
-            TimetableDTO dto = TimetableDTO.fromTimetableAndCourse(timetable, course);
-            if(teacher != null) {
-                dto.setTeacherName(teacher.getName());
-            }
-            return dto;
-        }).collect(Collectors.toList());
+        return timetableService.getTimetableDTOsByClassId(classId);
     }
 
     // 修改导出Excel方法，支持按班级导出
@@ -153,17 +156,27 @@ public class ScheduleController {
     }
 
     // 多班级排课
+    // joint=true 时所有班级联合排课，教师和教室跨班级不冲突
     @PostMapping("/autoScheduleMultiClass/{classCount}")
-    public String autoScheduleMultiClass(@PathVariable int classCount) {
+    public String autoScheduleMultiClass(@PathVariable int classCount,
+                                         @RequestParam(defaultValue = "false") boolean joint,
+                                         @RequestParam(required = false) Long seed,
+                                         @RequestParam(defaultValue = "GA") ScheduleJob.Engine engine,
+                                         @RequestParam(required = false) Long timeBudgetMillis) {
         if (classCount <= 0) {
             return "班级数量必须大于0";
         }
-        if (classCount > 50) {  // 添加上限检查
-            return "班级数量不能超过50";
+        if (timeBudgetMillis != null && timeBudgetMillis <= 0) {
+            return "时间预算必须大于0";
+        }
+        int maxClassCount = joint ? 200 : 50;  // 联合排课用于整个学院，上限更高
+        if (classCount > maxClassCount) {  // 添加上限检查
+            return "班级数量不能超过" + maxClassCount;
         }
         try {
-            scheduleService.autoScheduleMultiClass(classCount);
-            return "已完成" + classCount + "个班级的排课";
+            ScheduleJob job = scheduleService.autoSchedule(ScheduleJob.multiClass(classCount, joint, seed, true)
+                    .withEngine(engine).withTimeBudget(timeBudgetMillis));
+            return "已完成" + classCount + "个班级的排课" + workSummary(job);
         } catch (Exception e) {
             return "排课失败：" + e.getMessage();
         }
@@ -171,21 +184,20 @@ public class ScheduleController {
 
     // 查询所有班级的课表
     @GetMapping("/allClasses")
+    @Timed(value = "schedule.timetables.read", histogram = true)
     public Map<Integer, List<TimetableDTO>> getAllClassesTimetables() {
-        Map<Integer, List<Timetable>> classTimetables = timetableService.getAllClassesTimetables();
-        return classTimetables.entrySet().stream()
-            .collect(Collectors.toMap(
-                Map.Entry::getKey,
-                entry -> entry.getValue().stream().map(timetable -> {
-                    Course course = timetable.getCourseId() != null ? courseService.getCourseById(timetable.getCourseId()) : null;
-                    Teacher teacher = timetable.getTeacherId() != null ? teacherService.getTeacherById(timetable.getTeacherId()) : null;
-                    
-                    TimetableDTO dto = TimetableDTO.fromTimetableAndCourse(timetable, course);
-                    if(teacher != null) {
-                        dto.setTeacherName(teacher.getName());
-                    }
-                    return dto;
-                }).collect(Collectors.toList())
-            ));
+        return timetableService.getAllClassesTimetables();
+    }
+
+    // 有时间预算时报告预算内完成的代数和评估次数
+    private static String workSummary(ScheduleJob job) {
+        if (job.isCacheHit()) {
+            return "（输入未变化，直接使用缓存的结果）";
+        }
+        if (job.getTimeBudgetMillis() == null) {
+            return "";
+        }
+        return "（" + job.getTimeBudgetMillis() + " 毫秒内进化 " + job.getGeneration() + " 代，评估 " +
+               job.getEvaluations() + " 次，种群大小 " + job.getPopulationSize() + "）";
     }
-}
\ No newline at end of file
+}
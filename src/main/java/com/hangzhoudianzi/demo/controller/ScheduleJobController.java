@@ -0,0 +1,115 @@
+package com.hangzhoudianzi.demo.controller;
+
+import com.hangzhoudianzi.demo.pojo.dto.ScheduleJobDTO;
+import com.hangzhoudianzi.demo.service.ScheduleJob;
+import com.hangzhoudianzi.demo.service.ScheduleJobService;
+import com.hangzhoudianzi.demo.service.ScheduleProgressService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * 异步排课任务接口
+ * <p>
+ * 提交排课后立即返回任务ID，之后通过任务ID查询进度、取消任务或保存结果
+ */
+@RestController
+@RequestMapping("/api/schedule/jobs")
+public class ScheduleJobController {
+    @Autowired
+    private ScheduleJobService scheduleJobService;
+    @Autowired
+    private ScheduleProgressService scheduleProgressService;
+
+    // 提交单个班级的排课任务，persist=true 时完成后自动保存到数据库，engine=CSP 时使用约束传播求解
+    // 指定 timeBudgetMillis 时持续改进到截止时间，返回目前最好的结果
+    @PostMapping("/autoSchedule/{classId}")
+    public ScheduleJobDTO autoSchedule(@PathVariable Integer classId,
+                                       @RequestParam(required = false) Long seed,
+                                       @RequestParam(defaultValue = "false") boolean persist,
+                                       @RequestParam(defaultValue = "GA") ScheduleJob.Engine engine,
+                                       @RequestParam(required = false) Long timeBudgetMillis) {
+        if (classId == null || classId <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "班级ID不能为空或小于等于0");
+        }
+        checkTimeBudget(timeBudgetMillis);
+        return submit(ScheduleJob.singleClass(classId, seed, persist).withEngine(engine)
+                .withTimeBudget(timeBudgetMillis));
+    }
+
+    // 提交多班级排课任务，joint=true 时所有班级联合排课
+    @PostMapping("/autoScheduleMultiClass/{classCount}")
+    public ScheduleJobDTO autoScheduleMultiClass(@PathVariable int classCount,
+                                                 @RequestParam(defaultValue = "false") boolean joint,
+                                                 @RequestParam(required = false) Long seed,
+                                                 @RequestParam(defaultValue = "false") boolean persist,
+                                                 @RequestParam(defaultValue = "GA") ScheduleJob.Engine engine,
+                                                 @RequestParam(required = false) Long timeBudgetMillis) {
+        if (classCount <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "班级数量必须大于0");
+        }
+        int maxClassCount = joint ? 200 : 50;
+        if (classCount > maxClassCount) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "班级数量不能超过" + maxClassCount);
+        }
+        checkTimeBudget(timeBudgetMillis);
+        return submit(ScheduleJob.multiClass(classCount, joint, seed, persist).withEngine(engine)
+                .withTimeBudget(timeBudgetMillis));
+    }
+
+    // 查询任务状态、当前代数、最佳适应度和已用时间，已完成的任务同时返回课表
+    @GetMapping("/{jobId}")
+    public ScheduleJobDTO getJob(@PathVariable String jobId) {
+        return ScheduleJobDTO.fromJob(requireJob(scheduleJobService.getJob(jobId)));
+    }
+
+    // 以SSE推送任务进度：代数、最佳/平均适应度、冲突数、每秒评估数，任务结束后关闭连接
+    @GetMapping(value = "/{jobId}/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter progress(@PathVariable String jobId) {
+        SseEmitter emitter = scheduleProgressService.subscribe(jobId);
+        if (emitter == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "任务不存在或已过期");
+        }
+        return emitter;
+    }
+
+    // 取消任务，运行中的任务在当前这一代结束后停止
+    @DeleteMapping("/{jobId}")
+    public ScheduleJobDTO cancel(@PathVariable String jobId) {
+        return ScheduleJobDTO.fromJob(requireJob(scheduleJobService.cancel(jobId)));
+    }
+
+    // 把已完成任务的课表保存到数据库
+    @PostMapping("/{jobId}/persist")
+    public ScheduleJobDTO persist(@PathVariable String jobId) {
+        try {
+            return ScheduleJobDTO.fromJob(requireJob(scheduleJobService.persist(jobId)));
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+
+    private ScheduleJobDTO submit(ScheduleJob job) {
+        try {
+            return ScheduleJobDTO.fromJob(scheduleJobService.submit(job));
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+
+    private static void checkTimeBudget(Long timeBudgetMillis) {
+        if (timeBudgetMillis != null && timeBudgetMillis <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "时间预算必须大于0");
+        }
+    }
+
+    private static ScheduleJob requireJob(ScheduleJob job) {
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "任务不存在或已过期");
+        }
+        return job;
+    }
+}
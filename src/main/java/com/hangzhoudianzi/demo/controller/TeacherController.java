@@ -1,18 +1,15 @@
 package com.hangzhoudianzi.demo.controller;
 
 import com.hangzhoudianzi.demo.mapper.TeacherMapper;
-import com.hangzhoudianzi.demo.pojo.people.Course;
 import com.hangzhoudianzi.demo.pojo.people.Teacher;
-import com.hangzhoudianzi.demo.pojo.resource.Timetable;
 import com.hangzhoudianzi.demo.service.TeacherService;
-import com.hangzhoudianzi.demo.mapper.TimetableMapper;
-import com.hangzhoudianzi.demo.service.CourseService;
+import com.hangzhoudianzi.demo.service.TimetableService;
 import com.hangzhoudianzi.demo.pojo.dto.TimetableDTO;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/teachers")
@@ -22,9 +19,7 @@ public class TeacherController {
     @Autowired
     private TeacherMapper teacherMapper;
     @Autowired
-    private TimetableMapper timetableMapper;
-    @Autowired
-    private CourseService courseService;
+    private TimetableService timetableService;
 
     @GetMapping("/getAllTeachers")
     public List<Teacher> getAllTeachers() {
@@ -71,6 +66,7 @@ public class TeacherController {
     }
 
     @GetMapping("/getTeacherTimeTable/{id}")
+    @Timed(value = "schedule.timetables.read", histogram = true)
     public List<TimetableDTO> getTeacherTimeTable(@PathVariable("id") String id) throws Exception {
         // 首先验证教师是否存在
         Teacher teacher = teacherMapper.getTeacherById(id);
@@ -78,15 +74,7 @@ public class TeacherController {
             throw new Exception("没有找到此老师");
         }
         
-        // 获取该教师的所有课表记录
-        List<Timetable> timetables = timetableMapper.getTimetablesByTeacherId(id);
-        
-        // 转换为DTO并添加额外信息
-        return timetables.stream().map(timetable -> {
-            Course course = timetable.getCourseId() != null ? courseService.getCourseById(timetable.getCourseId()) : null;
-            TimetableDTO dto = TimetableDTO.fromTimetableAndCourse(timetable, course);
-            dto.setTeacherName(teacher.getName());
-            return dto;
-        }).collect(Collectors.toList());
+        // 获取该教师的所有课表记录，课程信息和教师姓名在同一条查询中关联得到
+        return timetableService.getTimetableDTOsByTeacherId(id);
     }
 }
\ No newline at end of file
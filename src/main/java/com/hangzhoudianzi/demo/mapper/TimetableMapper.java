@@ -1,17 +1,38 @@
 package com.hangzhoudianzi.demo.mapper;
 
+import com.hangzhoudianzi.demo.pojo.dto.TimetableDTO;
 import com.hangzhoudianzi.demo.pojo.resource.Timetable;
 import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import java.util.Collection;
 import java.util.List;
 
 @Mapper
 public interface TimetableMapper {
 
+    // 插入到班级当前发布的版本
     int insertTimetable(Timetable timetable);
+    // 多行INSERT批量插入到指定版本，列表不能为空
+    int insertTimetables(@Param("timetables") List<Timetable> timetables, @Param("version") long version);
+    // 班级的版本号加1，需要在事务中与新版本记录的插入一起提交
+    int advanceVersion(Integer classId);
+    // 班级版本号从 expected 加1，expected 已不是当前版本时不更新并返回0；expected 为0表示从未发布过
+    int advanceVersionFrom(@Param("classId") Integer classId, @Param("expected") long expected);
+    // 班级当前发布的版本，从未发布过时返回null
+    Long getVersion(Integer classId);
+    // 把班级 fromVersion 的记录（排除 excludedIds）原样复制到 toVersion，在数据库内完成
+    int carryForward(@Param("classId") Integer classId, @Param("fromVersion") long fromVersion,
+                     @Param("toVersion") long toVersion, @Param("excludedIds") Collection<Integer> excludedIds);
+    // 删除班级不再是当前版本的记录
+    int deleteStaleVersions(Integer classId);
     List<Timetable> getAllTimetables();
     List<Timetable> getTimetablesByClassId(Integer classId);
     int deleteByClassId(Integer classId);
     List<Timetable> getTimetablesByTeacherId(String teacherId);
+    // 当前版本的课表连同课程名、起止周和教师姓名，一次查询返回
+    List<TimetableDTO> getTimetableDTOs();
+    List<TimetableDTO> getTimetableDTOsByClassId(Integer classId);
+    List<TimetableDTO> getTimetableDTOsByTeacherId(String teacherId);
 }
@@ -0,0 +1,64 @@
+package com.hangzhoudianzi.demo.pojo.dto;
+
+import com.hangzhoudianzi.demo.pojo.resource.Timetable;
+import com.hangzhoudianzi.demo.service.ScheduleJob;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@Data
+@NoArgsConstructor
+public class ScheduleJobDTO {
+    private String jobId;
+    private String description;
+    private String status;
+    // 排课引擎：GA 或 CSP
+    private String engine;
+    private int generation;
+    private double bestFitness;
+    // 时间预算（毫秒），为null时不限时间
+    private Long timeBudgetMillis;
+    // 实际使用的种群大小和已评估的次数，截止时间模式下反映预算内能完成的工作量
+    private int populationSize;
+    private long evaluations;
+    // 输入未变化，结果直接取自缓存
+    private boolean cacheHit;
+    private long elapsedMillis;
+    private boolean persisted;
+    private String message;
+    // 班级ID -> 课表，只有已完成的任务才有
+    private Map<Integer, List<TimetableDTO>> timetables;
+
+    public static ScheduleJobDTO fromJob(ScheduleJob job) {
+        ScheduleJobDTO dto = new ScheduleJobDTO();
+        dto.setJobId(job.getId());
+        dto.setDescription(job.getDescription());
+        dto.setEngine(job.getEngine().name());
+        dto.setStatus(job.getStatus().name());
+        dto.setGeneration(job.getGeneration());
+        dto.setBestFitness(job.getBestFitness());
+        dto.setTimeBudgetMillis(job.getTimeBudgetMillis());
+        dto.setPopulationSize(job.getPopulationSize());
+        dto.setEvaluations(job.getEvaluations());
+        dto.setCacheHit(job.isCacheHit());
+        dto.setElapsedMillis(job.getElapsedMillis());
+        dto.setPersisted(job.isPersisted());
+        dto.setMessage(job.getMessage());
+
+        Map<Integer, List<Timetable>> result = job.getResult();
+        if (job.getStatus() == ScheduleJob.Status.COMPLETED && result != null) {
+            Map<Integer, List<TimetableDTO>> timetables = new LinkedHashMap<>();
+            for (Map.Entry<Integer, List<Timetable>> entry : result.entrySet()) {
+                timetables.put(entry.getKey(), entry.getValue().stream()
+                        .map(TimetableDTO::fromTimetable)
+                        .collect(Collectors.toList()));
+            }
+            dto.setTimetables(timetables);
+        }
+        return dto;
+    }
+}
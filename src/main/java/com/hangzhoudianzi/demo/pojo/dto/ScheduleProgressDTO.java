@@ -0,0 +1,21 @@
+package com.hangzhoudianzi.demo.pojo.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 排课进度事件，通过SSE推送给前端
+ */
+@Data
+@NoArgsConstructor
+public class ScheduleProgressDTO {
+    private String jobId;
+    private String status;
+    private int generation;
+    private double bestFitness;
+    private double meanFitness;
+    // 最佳方案的冲突数
+    private int conflictCount;
+    private double evaluationsPerSecond;
+    private long elapsedMillis;
+}
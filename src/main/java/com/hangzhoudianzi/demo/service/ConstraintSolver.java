@@ -0,0 +1,611 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.pojo.resource.Timetable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * 约束传播排课
+ * <p>
+ * 每个班级的每门课程是一个变量，取值为 (星期, 节次, 教室)。初始值域只保留容量不小于课程人数、
+ * 类型符合课程要求的教室，并去掉其他班级现有课表中教师和教室已占用的时段。硬约束为：
+ * 同一班级、同一教师在同一时段只能有一门课，同一教室在同一时段只能有一门课；
+ * 上课周次不相交的课程（见 {@link ScheduleProblem#weekMask}）之间没有约束。
+ * 连排课程的取值为整块的开始时段，只取课程合法的开始节次，两块的节次有重叠即为冲突。
+ * <p>
+ * 这些约束都是二元的不重叠约束，弧相容只在某个变量的取值唯一时才能删减别的变量：
+ * 时段唯一时从同班级、同教师的变量中删去会与这一块重叠的开始时段，(时段, 教室) 唯一时从所有变量中删去它们。
+ * 从 s 开始的 n 节连排与一组时段重叠，当且仅当 s 在这组时段右移 0..n-1 位的并集中，删减只需几次移位。
+ * 搜索每次选择值域最小的变量（相同时选相关变量多的），按软约束罚分、班级当天课程数和教室余量排序取值，
+ * 失败次数超过上限时随机重启并放宽上限，直到找到无冲突的课表或时间预算用完。
+ * <p>
+ * 增量排课时变量取自 {@link WarmStart} 的模板，固定基因的值域只有现有的 (时段, 教室)。
+ * <p>
+ * 值域按 变量*教室数+教室 存成long，第 (星期-1)*每天节数+(节次-1) 位表示可以从该时段开始。
+ */
+class ConstraintSolver {
+    private static final int SLOTS = ScheduleService.DAYS * ScheduleService.PERIODS_PER_DAY;
+    // 每隔多少个搜索节点检查一次时间和取消标记
+    private static final int CHECK_INTERVAL = 256;
+
+    private final ScheduleIndex index;
+    private final SplittableRandom random;
+    private final int varCount;
+    private final int roomCount;
+
+    private final int[] varCourse;
+    private final int[] varTeacher;
+    private final int[] varClass;
+    private final long[] varWeeks;
+    // 同班级或同教师、且周次有重叠的其他变量
+    private final int[][] neighbors;
+    private final long[] initialDomain;
+    private int relaxedVariables;
+
+    // 搜索状态
+    private final long[] domain;
+    private final int[] domainSize;
+    private final boolean[] assigned;
+    private final int[][] classDayLoad;
+    private final int[] tieBreak;
+    // 搜索栈，每层对应一个已选变量
+    private final int[] stackVar;
+    private final long[][] stackValues;
+    private final int[] stackCursor;
+    private final int[] stackMark;
+    private final int[] stackSlot;
+
+    // 值域修改记录，回溯时恢复
+    private int[] trailIndex = new int[1024];
+    private long[] trailMask = new long[1024];
+    private int trailSize;
+
+    private final int[] queue;
+    private final boolean[] inQueue;
+    private int queueHead;
+    private int queueTail;
+
+    private long deadline;
+    private ScheduleJob job;
+    private long nodes;
+    private long failures;
+    private long failLimit;
+    private int restarts;
+    private boolean aborted;
+    private boolean timeUp;
+
+    /**
+     * @param preferredTeachers 下标为班级下标，每个班级中每门课程的教师下标
+     * @param fixedTimetables 不参与本次排课的现有课表，其中教师和教室占用的时段不可再用
+     */
+    ConstraintSolver(ScheduleIndex index, int[][] preferredTeachers, List<Timetable> fixedTimetables,
+                     SplittableRandom random) {
+        this.index = index;
+        this.random = random;
+        this.roomCount = index.classroomCount();
+        if (index.warmStart != null) {
+            ScheduleService.Chromosome template = index.warmStart.template;
+            this.varCount = template.size();
+            this.varCourse = template.courses.clone();
+            this.varTeacher = template.teachers.clone();
+            this.varClass = template.classes.clone();
+        } else {
+            this.varCount = Math.min(index.courseCount(), SLOTS) * index.classCount();
+            this.varCourse = new int[varCount];
+            this.varTeacher = new int[varCount];
+            this.varClass = new int[varCount];
+            assignVariables(preferredTeachers);
+        }
+        this.varWeeks = new long[varCount];
+        for (int v = 0; v < varCount; v++) {
+            varWeeks[v] = index.problem.weekMask[varCourse[v]];
+        }
+        this.neighbors = buildNeighbors();
+        this.initialDomain = buildInitialDomain(fixedTimetables);
+
+        this.domain = new long[varCount * roomCount];
+        this.domainSize = new int[varCount];
+        this.assigned = new boolean[varCount];
+        this.classDayLoad = new int[index.classCount()][ScheduleService.DAYS];
+        this.tieBreak = new int[varCount];
+        this.stackVar = new int[varCount];
+        this.stackValues = new long[varCount][];
+        this.stackCursor = new int[varCount];
+        this.stackMark = new int[varCount];
+        this.stackSlot = new int[varCount];
+        this.queue = new int[varCount + 1];
+        this.inQueue = new boolean[varCount];
+    }
+
+    /**
+     * 每个班级的每门课程一个变量，排列与遗传算法的基因相同
+     */
+    private void assignVariables(int[][] preferredTeachers) {
+        int genesPerClass = Math.min(index.courseCount(), SLOTS);
+        for (int classIndex = 0; classIndex < index.classCount(); classIndex++) {
+            for (int i = 0; i < genesPerClass; i++) {
+                int v = classIndex * genesPerClass + i;
+                int teacher = preferredTeachers[classIndex][i];
+                varCourse[v] = i;
+                varTeacher[v] = teacher >= 0 ? teacher : random.nextInt(index.teacherCount());
+                varClass[v] = classIndex;
+            }
+        }
+    }
+
+    /**
+     * 课程人数超过所有教室容量、或没有符合类型的教室，只能放宽教室限制的变量数
+     */
+    int relaxedVariables() {
+        return relaxedVariables;
+    }
+
+    long nodes() {
+        return nodes;
+    }
+
+    int restarts() {
+        return restarts;
+    }
+
+    /**
+     * 搜索无冲突的课表
+     *
+     * @return 染色体，基因排列与遗传算法相同；时间用完、任务被取消或问题无解时返回null
+     */
+    ScheduleService.Chromosome solve(long timeBudgetMillis, int initialFailLimit, ScheduleJob job) {
+        this.deadline = System.nanoTime() + timeBudgetMillis * 1_000_000L;
+        this.job = job;
+        this.failLimit = Math.max(1, initialFailLimit);
+
+        while (true) {
+            reset();
+            if (!propagate()) {
+                return null;  // 初始值域已经矛盾，问题无解
+            }
+            failures = 0;
+            aborted = false;
+            if (search()) {
+                return toChromosome();
+            }
+            if (!aborted || timeUp) {
+                return null;  // 搜索完整结束仍无解，或时间用完
+            }
+            // 失败次数超过上限，换一个变量顺序重启
+            restarts++;
+            failLimit = failLimit * 3 / 2;
+        }
+    }
+
+    private int[][] buildNeighbors() {
+        int[][] result = new int[varCount][];
+        int[] buffer = new int[varCount];
+        for (int v = 0; v < varCount; v++) {
+            int count = 0;
+            for (int w = 0; w < varCount; w++) {
+                if (w != v && (varClass[w] == varClass[v] || varTeacher[w] == varTeacher[v])
+                        && (varWeeks[w] & varWeeks[v]) != 0) {
+                    buffer[count++] = w;
+                }
+            }
+            result[v] = Arrays.copyOf(buffer, count);
+        }
+        return result;
+    }
+
+    private long[] buildInitialDomain(List<Timetable> fixedTimetables) {
+        ScheduleProblem problem = index.problem;
+
+        // 其他班级现有课表占用的周次，按 教师*时段数+时段、教室*时段数+时段 存放
+        long[] teacherBusy = new long[index.teacherCount() * SLOTS];
+        long[] roomBusy = new long[roomCount * SLOTS];
+        for (Timetable timetable : fixedTimetables) {
+            long slots = slotsOf(timetable);
+            int course = problem.indexOfCourse(timetable.getCourseId());
+            long weeks = course >= 0 ? problem.weekMask[course] : ScheduleProblem.ALL_WEEKS;
+            int teacher = problem.indexOfTeacher(timetable.getTeacherId());
+            int room = problem.indexOfClassroom(timetable.getClassroomId());
+            while (slots != 0) {
+                int slot = Long.numberOfTrailingZeros(slots);
+                slots &= slots - 1;
+                if (teacher >= 0) {
+                    teacherBusy[teacher * SLOTS + slot] |= weeks;
+                }
+                if (room >= 0) {
+                    roomBusy[room * SLOTS + slot] |= weeks;
+                }
+            }
+        }
+
+        long[] result = new long[varCount * roomCount];
+        for (int v = 0; v < varCount; v++) {
+            if (index.isPinned(v)) {
+                // 固定基因保持现有的时间和教室
+                ScheduleService.Chromosome template = index.warmStart.template;
+                int slot = (template.days[v] - 1) * ScheduleService.PERIODS_PER_DAY + template.periods[v] - 1;
+                result[v * roomCount + template.rooms[v]] = 1L << slot;
+                continue;
+            }
+            int course = varCourse[v];
+            long weeks = varWeeks[v];
+            long teacherSlots = legalStarts(course) & ~overlappingStarts(v, busySlots(teacherBusy, varTeacher[v], weeks));
+            boolean anyRoom = false;
+            for (int r = 0; r < roomCount; r++) {
+                if (roomFits(course, r)) {
+                    result[v * roomCount + r] = teacherSlots & ~overlappingStarts(v, busySlots(roomBusy, r, weeks));
+                    anyRoom = true;
+                }
+            }
+            if (!anyRoom) {
+                // 没有合适的教室时允许使用任何教室，由软约束罚分
+                relaxedVariables++;
+                for (int r = 0; r < roomCount; r++) {
+                    result[v * roomCount + r] = teacherSlots & ~overlappingStarts(v, busySlots(roomBusy, r, weeks));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 课程在一周内的合法开始时段
+     */
+    private long legalStarts(int course) {
+        long starts = 0;
+        for (int day = 0; day < ScheduleService.DAYS; day++) {
+            starts |= (long) index.problem.blockStarts[course] << (day * ScheduleService.PERIODS_PER_DAY);
+        }
+        return starts;
+    }
+
+    /**
+     * 变量从 slot 开始的整块占用的时段
+     */
+    private long blockSlots(int v, int slot) {
+        int period = slot % ScheduleService.PERIODS_PER_DAY + 1;
+        return (long) index.problem.periodMask(varCourse[v], period) << (slot - period + 1);
+    }
+
+    /**
+     * 变量会与 slots 重叠的开始时段
+     */
+    private long overlappingStarts(int v, long slots) {
+        long starts = 0;
+        for (int k = 0; k < index.problem.blockLength[varCourse[v]]; k++) {
+            starts |= slots >>> k;
+        }
+        return starts;
+    }
+
+    /**
+     * 实体在这些周次已被占用的时段位
+     */
+    private static long busySlots(long[] busyWeeks, int entity, long weeks) {
+        long slots = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if ((busyWeeks[entity * SLOTS + slot] & weeks) != 0) {
+                slots |= 1L << slot;
+            }
+        }
+        return slots;
+    }
+
+    private boolean roomFits(int course, int room) {
+        ScheduleProblem problem = index.problem;
+        if (problem.classSize[course] > problem.roomCapacity[room]) {
+            return false;
+        }
+        int required = problem.requiredRoomType[course];
+        return required == ScheduleProblem.NO_ROOM_TYPE || problem.roomType[room] == required;
+    }
+
+    /**
+     * 现有课表记录占用的时段位，没有星期或节次信息的记录不占用时段
+     */
+    private static long slotsOf(Timetable timetable) {
+        Integer day = timetable.getDayOfWeek();
+        if (day == null || day < 1 || day > ScheduleService.DAYS) {
+            return 0;
+        }
+        long slots = 0;
+        String periodInfo = timetable.getPeriodInfo();
+        if (periodInfo != null) {
+            for (String part : periodInfo.split(",")) {
+                try {
+                    int period = Integer.parseInt(part.trim());
+                    if (period >= 1 && period <= ScheduleService.PERIODS_PER_DAY) {
+                        slots |= 1L << ((day - 1) * ScheduleService.PERIODS_PER_DAY + period - 1);
+                    }
+                } catch (NumberFormatException e) {
+                    // 忽略无法解析的节次
+                }
+            }
+        }
+        return slots;
+    }
+
+    private void reset() {
+        System.arraycopy(initialDomain, 0, domain, 0, domain.length);
+        for (int v = 0; v < varCount; v++) {
+            int size = 0;
+            for (int r = 0; r < roomCount; r++) {
+                size += Long.bitCount(domain[v * roomCount + r]);
+            }
+            domainSize[v] = size;
+            tieBreak[v] = random.nextInt();
+            // 初始值域唯一的变量也要传播
+            enqueue(v);
+        }
+        Arrays.fill(assigned, false);
+        for (int[] loads : classDayLoad) {
+            Arrays.fill(loads, 0);
+        }
+        trailSize = 0;
+    }
+
+    /**
+     * 深度优先搜索，用显式栈代替递归：变量数可达数千，递归会栈溢出。
+     * 第 depth 层记录所选变量、排好序的取值、下一个要试的取值，
+     * 以及当前取值赋值前的修改记录位置和所在时段（未赋值时为 -1）
+     */
+    private boolean search() {
+        int depth = -1;
+        boolean descend = true;
+        while (true) {
+            if (descend) {
+                nodes++;
+                if (nodes % CHECK_INTERVAL == 0 && (System.nanoTime() >= deadline || job.isCancelRequested())) {
+                    timeUp = true;
+                    aborted = true;
+                    return false;  // 未恢复的搜索状态由下一次 reset() 清掉
+                }
+                int v = selectVariable();
+                if (v < 0) {
+                    return true;
+                }
+                depth++;
+                stackVar[depth] = v;
+                stackValues[depth] = orderedValues(v);
+                stackCursor[depth] = 0;
+                stackSlot[depth] = -1;
+            }
+
+            int v = stackVar[depth];
+            if (stackSlot[depth] >= 0) {
+                // 下一层已失败，撤销本层当前取值
+                classDayLoad[varClass[v]][stackSlot[depth] / ScheduleService.PERIODS_PER_DAY]--;
+                assigned[v] = false;
+                undoTo(stackMark[depth]);
+                stackSlot[depth] = -1;
+                if (aborted) {
+                    return false;
+                }
+            }
+
+            descend = false;
+            long[] values = stackValues[depth];
+            while (stackCursor[depth] < values.length) {
+                int value = (int) (values[stackCursor[depth]++] & 0xFFFFFF);
+                int room = value / SLOTS;
+                int slot = value % SLOTS;
+                int mark = trailSize;
+
+                if (assign(v, room, slot) && propagate()) {
+                    assigned[v] = true;
+                    classDayLoad[varClass[v]][slot / ScheduleService.PERIODS_PER_DAY]++;
+                    stackMark[depth] = mark;
+                    stackSlot[depth] = slot;
+                    descend = true;
+                    break;
+                }
+                undoTo(mark);
+            }
+            if (descend) {
+                continue;
+            }
+
+            if (++failures >= failLimit) {
+                aborted = true;
+            }
+            stackValues[depth] = null;
+            depth--;
+            if (depth < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 值域最小的未赋值变量，相同时取相关变量多的，再相同时按本轮的随机顺序
+     */
+    private int selectVariable() {
+        int best = -1;
+        for (int v = 0; v < varCount; v++) {
+            if (assigned[v]) {
+                continue;
+            }
+            if (best < 0 || domainSize[v] < domainSize[best]
+                    || (domainSize[v] == domainSize[best]
+                        && (neighbors[v].length > neighbors[best].length
+                            || (neighbors[v].length == neighbors[best].length && tieBreak[v] < tieBreak[best])))) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 按 软约束罚分、班级当天课程数、教室余量 从小到大排列的取值，相同的随机排列。
+     * 每个取值编码为 排序键<<24 | 教室*时段数+时段
+     */
+    private long[] orderedValues(int v) {
+        ScheduleProblem problem = index.problem;
+        int course = varCourse[v];
+        int[] dayLoad = classDayLoad[varClass[v]];
+        long[] values = new long[domainSize[v]];
+        int count = 0;
+        for (int r = 0; r < roomCount; r++) {
+            long mask = domain[v * roomCount + r];
+            int spare = Math.max(0, Math.min(255, problem.roomCapacity[r] - problem.classSize[course]));
+            while (mask != 0) {
+                int slot = Long.numberOfTrailingZeros(mask);
+                mask &= mask - 1;
+                int period = slot % ScheduleService.PERIODS_PER_DAY + 1;
+                long penalty = problem.constraints.genePenalty(problem, course, r,
+                        slot / ScheduleService.PERIODS_PER_DAY + 1, period);
+                long score = ((penalty * 16 + dayLoad[slot / ScheduleService.PERIODS_PER_DAY]) * 256 + spare) * 4096
+                        + random.nextInt(4096);
+                values[count++] = (score << 24) | (r * SLOTS + slot);
+            }
+        }
+        Arrays.sort(values, 0, count);
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+
+    private boolean assign(int v, int room, int slot) {
+        for (int r = 0; r < roomCount; r++) {
+            long keep = r == room ? 1L << slot : 0L;
+            if (!setMask(v, r, domain[v * roomCount + r] & keep)) {
+                return false;
+            }
+        }
+        enqueue(v);
+        return true;
+    }
+
+    /**
+     * 弧相容传播，直到队列为空；出现空值域时返回false
+     */
+    private boolean propagate() {
+        while (queueHead != queueTail) {
+            int v = queue[queueHead];
+            queueHead = (queueHead + 1) % queue.length;
+            inQueue[v] = false;
+
+            if (domainSize[v] == 0) {
+                clearQueue();
+                return false;
+            }
+
+            // 时段唯一：同班级、同教师且周次重叠的变量不能再与这一块重叠
+            long starts = slotUnion(v);
+            if (Long.bitCount(starts) != 1) {
+                continue;
+            }
+            long slots = blockSlots(v, Long.numberOfTrailingZeros(starts));
+            for (int n : neighbors[v]) {
+                if (!removeSlots(n, overlappingStarts(n, slots))) {
+                    clearQueue();
+                    return false;
+                }
+            }
+
+            // (时段, 教室) 唯一：周次有重叠的其他变量不能再在这个教室与这一块重叠
+            if (domainSize[v] == 1) {
+                int room = 0;
+                while (domain[v * roomCount + room] == 0) {
+                    room++;
+                }
+                for (int w = 0; w < varCount; w++) {
+                    if (w != v && (varWeeks[w] & varWeeks[v]) != 0) {
+                        int i = w * roomCount + room;
+                        long blocked = overlappingStarts(w, slots);
+                        if ((domain[i] & blocked) != 0) {
+                            if (!setMask(w, room, domain[i] & ~blocked)) {
+                                clearQueue();
+                                return false;
+                            }
+                            enqueue(w);
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private long slotUnion(int v) {
+        long union = 0;
+        for (int r = 0; r < roomCount; r++) {
+            union |= domain[v * roomCount + r];
+        }
+        return union;
+    }
+
+    private boolean removeSlots(int v, long slots) {
+        boolean changed = false;
+        for (int r = 0; r < roomCount; r++) {
+            int i = v * roomCount + r;
+            if ((domain[i] & slots) != 0) {
+                setMask(v, r, domain[i] & ~slots);
+                changed = true;
+            }
+        }
+        if (changed) {
+            if (domainSize[v] == 0) {
+                return false;
+            }
+            enqueue(v);
+        }
+        return true;
+    }
+
+    private boolean setMask(int v, int room, long mask) {
+        int i = v * roomCount + room;
+        long old = domain[i];
+        if (old != mask) {
+            if (trailSize == trailIndex.length) {
+                trailIndex = Arrays.copyOf(trailIndex, trailSize * 2);
+                trailMask = Arrays.copyOf(trailMask, trailSize * 2);
+            }
+            trailIndex[trailSize] = i;
+            trailMask[trailSize] = old;
+            trailSize++;
+            domain[i] = mask;
+            domainSize[v] += Long.bitCount(mask) - Long.bitCount(old);
+        }
+        return domainSize[v] > 0;
+    }
+
+    private void undoTo(int mark) {
+        while (trailSize > mark) {
+            trailSize--;
+            int i = trailIndex[trailSize];
+            long old = trailMask[trailSize];
+            domainSize[i / roomCount] += Long.bitCount(old) - Long.bitCount(domain[i]);
+            domain[i] = old;
+        }
+    }
+
+    private void enqueue(int v) {
+        if (!inQueue[v]) {
+            inQueue[v] = true;
+            queue[queueTail] = v;
+            queueTail = (queueTail + 1) % queue.length;
+        }
+    }
+
+    private void clearQueue() {
+        while (queueHead != queueTail) {
+            inQueue[queue[queueHead]] = false;
+            queueHead = (queueHead + 1) % queue.length;
+        }
+    }
+
+    private ScheduleService.Chromosome toChromosome() {
+        ScheduleService.Chromosome chromosome = new ScheduleService.Chromosome(varCount);
+        for (int v = 0; v < varCount; v++) {
+            int room = 0;
+            while (domain[v * roomCount + room] == 0) {
+                room++;
+            }
+            int slot = Long.numberOfTrailingZeros(domain[v * roomCount + room]);
+            chromosome.setGene(v, varCourse[v], varTeacher[v], room,
+                    slot / ScheduleService.PERIODS_PER_DAY + 1, slot % ScheduleService.PERIODS_PER_DAY + 1,
+                    varClass[v]);
+        }
+        return chromosome;
+    }
+}
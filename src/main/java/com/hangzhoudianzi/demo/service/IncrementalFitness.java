@@ -0,0 +1,418 @@
+package com.hangzhoudianzi.demo.service;
+
+import java.util.Arrays;
+
+/**
+ * 增量适应度计算
+ * <p>
+ * 为单个染色体维护约束状态：时段占用，以及 {@link ScheduleConstraints} 中各累计约束的状态。
+ * 基因移动时只重新检查它离开和进入的那一天，结果与
+ * {@link ScheduleService#calculateFitness} 的全量计算完全一致。
+ * <p>
+ * 与全量计算按顺序扫描的对应关系：
+ * 同一班级重复的课程只有下标最小的基因有效，其余每个罚10分；
+ * 有效基因按 教师-班级-天 分组，组内按下标顺序检查，与前面基因的连排节次和周次都有重叠的罚5分，
+ * 其余基因为组内有效，计入软约束。联合排课时，同一天同一教室的有效基因、
+ * 同一教师的组内有效基因同样按下标顺序检查节次和周次重叠，每次重叠罚5分。
+ * 周次都占满且都是单节课时退化为：每个时段第一个基因有效，其余每个罚5分。
+ */
+class IncrementalFitness {
+    private static final int DAYS = ScheduleService.DAYS;
+
+    private final ScheduleIndex index;
+    private final ScheduleService.Chromosome chromosome;
+    private final long[] weekMask;
+
+    // 是否为本班级该课程的第一个基因，重复的课程不参与时段检查
+    private final boolean[] effective;
+    private int duplicateCount;
+    private int effectiveCount;
+
+    // 有效基因按 班级-天 分桶，用双向链表串起来
+    private final int[] bucketHead;
+    private final int[] next;
+    private final int[] prev;
+
+    // 在 教师-班级-天 组内与前面的基因节次或周次不重叠
+    private final boolean[] accepted;
+    private int acceptedCount;
+
+    private final ScheduleConstraints constraints;
+    private final ScheduleConstraints.LoadState[] loadState;
+    private int softPenaltySum;   // 组内有效基因的软约束罚分之和
+
+    // 联合排课时的跨班级占用，非联合排课时为null：
+    // 有效基因按 教室-天 分桶，组内有效基因按 教师-天 分桶，clash 标记与前面基因的节次和周次都重叠
+    private final int[] roomHead;
+    private final int[] roomNext;
+    private final int[] roomPrev;
+    private final boolean[] roomClash;
+    private final int[] teacherHead;
+    private final int[] teacherNext;
+    private final int[] teacherPrev;
+    private final boolean[] teacherClash;
+    private int sharedClashCount;
+
+    // 按下标排序同一天基因的临时数组，以及重新检查时当天每节已占用的周次，不随状态复制
+    private int[] scratch = new int[8];
+    private final long[] dayWeeks = new long[ScheduleService.PERIODS_PER_DAY];
+
+    IncrementalFitness(ScheduleIndex index, ScheduleService.Chromosome chromosome) {
+        this.index = index;
+        this.chromosome = chromosome;
+        this.weekMask = index.problem.weekMask;
+        int geneCount = chromosome.size();
+        this.effective = new boolean[geneCount];
+        this.bucketHead = new int[index.classCount() * DAYS];
+        this.next = new int[geneCount];
+        this.prev = new int[geneCount];
+        this.accepted = new boolean[geneCount];
+        this.constraints = index.problem.constraints;
+        this.loadState = constraints.newLoadState(index);
+        if (index.sharedResources) {
+            this.roomHead = new int[index.classroomCount() * DAYS];
+            this.roomNext = new int[geneCount];
+            this.roomPrev = new int[geneCount];
+            this.roomClash = new boolean[geneCount];
+            this.teacherHead = new int[index.teacherCount() * DAYS];
+            this.teacherNext = new int[geneCount];
+            this.teacherPrev = new int[geneCount];
+            this.teacherClash = new boolean[geneCount];
+        } else {
+            this.roomHead = null;
+            this.roomNext = null;
+            this.roomPrev = null;
+            this.roomClash = null;
+            this.teacherHead = null;
+            this.teacherNext = null;
+            this.teacherPrev = null;
+            this.teacherClash = null;
+        }
+        rebuild();
+    }
+
+    private IncrementalFitness(IncrementalFitness other, ScheduleService.Chromosome chromosome) {
+        this.index = other.index;
+        this.chromosome = chromosome;
+        this.weekMask = other.weekMask;
+        this.effective = other.effective.clone();
+        this.duplicateCount = other.duplicateCount;
+        this.effectiveCount = other.effectiveCount;
+        this.bucketHead = other.bucketHead.clone();
+        this.next = other.next.clone();
+        this.prev = other.prev.clone();
+        this.accepted = other.accepted.clone();
+        this.acceptedCount = other.acceptedCount;
+        this.constraints = other.constraints;
+        this.loadState = new ScheduleConstraints.LoadState[other.loadState.length];
+        for (int t = 0; t < loadState.length; t++) {
+            this.loadState[t] = other.loadState[t].copy();
+        }
+        this.softPenaltySum = other.softPenaltySum;
+        this.roomHead = other.roomHead != null ? other.roomHead.clone() : null;
+        this.roomNext = other.roomNext != null ? other.roomNext.clone() : null;
+        this.roomPrev = other.roomPrev != null ? other.roomPrev.clone() : null;
+        this.roomClash = other.roomClash != null ? other.roomClash.clone() : null;
+        this.teacherHead = other.teacherHead != null ? other.teacherHead.clone() : null;
+        this.teacherNext = other.teacherNext != null ? other.teacherNext.clone() : null;
+        this.teacherPrev = other.teacherPrev != null ? other.teacherPrev.clone() : null;
+        this.teacherClash = other.teacherClash != null ? other.teacherClash.clone() : null;
+        this.sharedClashCount = other.sharedClashCount;
+    }
+
+    /**
+     * 复制一份状态给深拷贝出来的染色体
+     */
+    IncrementalFitness copyFor(ScheduleService.Chromosome copy) {
+        return new IncrementalFitness(this, copy);
+    }
+
+    int conflictCount() {
+        return duplicateCount * 10
+                + (effectiveCount - acceptedCount) * 5
+                + softPenaltySum
+                + sharedClashCount * 5;
+    }
+
+    double fitness() {
+        return 1.0 / (1.0 + conflictCount());
+    }
+
+    /**
+     * 调整一个基因的上课时间
+     */
+    void moveGene(int gene, int day, int period) {
+        if (!effective[gene]) {
+            chromosome.days[gene] = day;
+            chromosome.periods[gene] = period;
+            return;
+        }
+        remove(gene);
+        chromosome.days[gene] = day;
+        chromosome.periods[gene] = period;
+        add(gene);
+    }
+
+    /**
+     * 调整一个基因的教室
+     */
+    void changeRoom(int gene, int room) {
+        if (!effective[gene]) {
+            chromosome.rooms[gene] = room;
+            return;
+        }
+        remove(gene);
+        chromosome.rooms[gene] = room;
+        add(gene);
+    }
+
+    /**
+     * 调整一个基因的教师
+     */
+    void changeTeacher(int gene, int teacher) {
+        if (!effective[gene]) {
+            chromosome.teachers[gene] = teacher;
+            return;
+        }
+        remove(gene);
+        chromosome.teachers[gene] = teacher;
+        add(gene);
+    }
+
+    /**
+     * 按当前基因全量重建状态
+     */
+    void rebuild() {
+        Arrays.fill(bucketHead, -1);
+        Arrays.fill(accepted, false);
+        for (ScheduleConstraints.LoadState state : loadState) {
+            state.clear();
+        }
+        if (index.sharedResources) {
+            Arrays.fill(roomHead, -1);
+            Arrays.fill(roomClash, false);
+            Arrays.fill(teacherHead, -1);
+            Arrays.fill(teacherClash, false);
+        }
+        sharedClashCount = 0;
+        acceptedCount = 0;
+        softPenaltySum = 0;
+
+        markEffectiveGenes();
+        for (int i = 0; i < effective.length; i++) {
+            if (effective[i]) {
+                add(i);
+            }
+        }
+    }
+
+    /**
+     * 标记每个 班级-课程 的第一个基因，按键排序后相邻比较，避免装箱
+     */
+    private void markEffectiveGenes() {
+        int geneCount = effective.length;
+        long[] keys = new long[geneCount];
+        for (int i = 0; i < geneCount; i++) {
+            long courseKey = (long) chromosome.classes[i] * index.courseCount() + chromosome.courses[i];
+            keys[i] = (courseKey << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        duplicateCount = 0;
+        effectiveCount = 0;
+        for (int k = 0; k < geneCount; k++) {
+            int gene = (int) keys[k];
+            boolean first = k == 0 || (keys[k] >>> 32) != (keys[k - 1] >>> 32);
+            effective[gene] = first;
+            if (first) {
+                effectiveCount++;
+            } else {
+                duplicateCount++;
+            }
+        }
+    }
+
+    private int bucketOf(int gene) {
+        return chromosome.classes[gene] * DAYS + chromosome.days[gene] - 1;
+    }
+
+    private long weeksOf(int gene) {
+        return weekMask[chromosome.courses[gene]];
+    }
+
+    private void add(int gene) {
+        int bucket = bucketOf(gene);
+        link(bucketHead, next, prev, bucket, gene);
+        recheckGroup(bucket, chromosome.teachers[gene], false);
+        if (index.sharedResources) {
+            int roomBucket = chromosome.rooms[gene] * DAYS + chromosome.days[gene] - 1;
+            link(roomHead, roomNext, roomPrev, roomBucket, gene);
+            sharedClashCount += recheckClashes(roomHead, roomNext, roomClash, roomBucket);
+        }
+    }
+
+    private void remove(int gene) {
+        int bucket = bucketOf(gene);
+        unlink(bucketHead, next, prev, bucket, gene);
+        boolean wasAccepted = accepted[gene];
+        if (wasAccepted) {
+            setAccepted(gene, false);
+        }
+        recheckGroup(bucket, chromosome.teachers[gene], wasAccepted);
+        if (index.sharedResources) {
+            int roomBucket = chromosome.rooms[gene] * DAYS + chromosome.days[gene] - 1;
+            unlink(roomHead, roomNext, roomPrev, roomBucket, gene);
+            if (roomClash[gene]) {
+                roomClash[gene] = false;
+                sharedClashCount--;
+            }
+            sharedClashCount += recheckClashes(roomHead, roomNext, roomClash, roomBucket);
+        }
+    }
+
+    /**
+     * 按下标顺序重新检查 教师-班级-天 组，更新组内有效的基因
+     *
+     * @param teacherChanged 调用前已有基因离开了 教师-天 桶，需要重新检查该桶
+     */
+    private void recheckGroup(int bucket, int teacher, boolean teacherChanged) {
+        int count = 0;
+        for (int g = bucketHead[bucket]; g >= 0; g = next[g]) {
+            if (chromosome.teachers[g] == teacher) {
+                count = push(count, g);
+            }
+        }
+        sortScratch(count);
+        Arrays.fill(dayWeeks, 0);
+        boolean changed = teacherChanged;
+        for (int k = 0; k < count; k++) {
+            int g = scratch[k];
+            boolean free = occupy(g);
+            if (free != accepted[g]) {
+                setAccepted(g, free);
+                changed = true;
+            }
+        }
+        if (changed && index.sharedResources) {
+            int teacherBucket = teacher * DAYS + (bucket % DAYS);
+            sharedClashCount += recheckClashes(teacherHead, teacherNext, teacherClash, teacherBucket);
+        }
+    }
+
+    /**
+     * 组内有效状态变化：计入或移出软约束，联合排课时加入或离开 教师-天 桶
+     */
+    private void setAccepted(int gene, boolean value) {
+        accepted[gene] = value;
+        acceptedCount += value ? 1 : -1;
+        count(gene, value ? 1 : -1);
+        if (index.sharedResources) {
+            int teacherBucket = chromosome.teachers[gene] * DAYS + chromosome.days[gene] - 1;
+            if (value) {
+                link(teacherHead, teacherNext, teacherPrev, teacherBucket, gene);
+            } else {
+                unlink(teacherHead, teacherNext, teacherPrev, teacherBucket, gene);
+                if (teacherClash[gene]) {
+                    teacherClash[gene] = false;
+                    sharedClashCount--;
+                }
+            }
+        }
+    }
+
+    /**
+     * 按下标顺序重新检查一个跨班级共享的桶
+     *
+     * @return 重叠次数的变化
+     */
+    private int recheckClashes(int[] head, int[] link, boolean[] clash, int bucket) {
+        int count = 0;
+        for (int g = head[bucket]; g >= 0; g = link[g]) {
+            count = push(count, g);
+        }
+        sortScratch(count);
+        Arrays.fill(dayWeeks, 0);
+        int delta = 0;
+        for (int k = 0; k < count; k++) {
+            int g = scratch[k];
+            boolean overlap = !occupy(g);
+            if (overlap != clash[g]) {
+                clash[g] = overlap;
+                delta += overlap ? 1 : -1;
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * 在 dayWeeks 中占用基因的连排节次和周次
+     *
+     * @return 原本都空闲时返回true
+     */
+    private boolean occupy(int gene) {
+        long weeks = weeksOf(gene);
+        int periods = index.problem.periodMask(chromosome.courses[gene], chromosome.periods[gene]);
+        boolean free = true;
+        while (periods != 0) {
+            int p = Integer.numberOfTrailingZeros(periods);
+            periods &= periods - 1;
+            free &= (dayWeeks[p] & weeks) == 0;
+            dayWeeks[p] |= weeks;
+        }
+        return free;
+    }
+
+    private int push(int count, int gene) {
+        if (count == scratch.length) {
+            scratch = Arrays.copyOf(scratch, count * 2);
+        }
+        scratch[count] = gene;
+        return count + 1;
+    }
+
+    // 同一天的基因很少，插入排序即可
+    private void sortScratch(int count) {
+        for (int i = 1; i < count; i++) {
+            int g = scratch[i];
+            int j = i - 1;
+            while (j >= 0 && scratch[j] > g) {
+                scratch[j + 1] = scratch[j];
+                j--;
+            }
+            scratch[j + 1] = g;
+        }
+    }
+
+    private static void link(int[] head, int[] next, int[] prev, int bucket, int gene) {
+        prev[gene] = -1;
+        next[gene] = head[bucket];
+        if (head[bucket] >= 0) {
+            prev[head[bucket]] = gene;
+        }
+        head[bucket] = gene;
+    }
+
+    private static void unlink(int[] head, int[] next, int[] prev, int bucket, int gene) {
+        if (prev[gene] >= 0) {
+            next[prev[gene]] = next[gene];
+        } else {
+            head[bucket] = next[gene];
+        }
+        if (next[gene] >= 0) {
+            prev[next[gene]] = prev[gene];
+        }
+    }
+
+    /**
+     * 组内有效基因计入（delta=1）或移出（delta=-1）软约束
+     */
+    private void count(int gene, int delta) {
+        int course = chromosome.courses[gene];
+        int room = chromosome.rooms[gene];
+        int day = chromosome.days[gene];
+        int period = chromosome.periods[gene];
+        softPenaltySum += delta * constraints.genePenalty(index.problem, course, room, day, period)
+                + constraints.updateLoads(loadState, index, chromosome.teachers[gene], chromosome.classes[gene],
+                course, room, day, period, delta);
+    }
+}
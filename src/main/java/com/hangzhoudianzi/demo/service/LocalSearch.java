@@ -0,0 +1,256 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.config.ScheduleProperties;
+
+import java.util.SplittableRandom;
+
+/**
+ * 遗传算法之后的局部搜索
+ * <p>
+ * 在最佳染色体上反复尝试小的改动：移动单个基因的时间、更换单个基因的教室、
+ * 交换两个基因的时间和教室。每次改动都通过 {@link IncrementalFitness} 增量打分，不接受时原样撤销。
+ * <ul>
+ *     <li>模拟退火：变差的改动按 exp(-增量/温度) 的概率接受，温度随已用时间从初始温度按几何级数降到终止温度</li>
+ *     <li>禁忌搜索：每轮抽样若干候选改动，取其中最好的一个执行，刚改动过的基因在若干轮内不再改动，
+ *     除非改动后优于历史最好解</li>
+ * </ul>
+ * 时间预算用完、冲突降为0或任务被取消时停止，返回搜索过程中的最好解。
+ * 增量排课时只改动待排的基因。
+ */
+class LocalSearch {
+    // 每隔多少次迭代检查一次时间和取消标记
+    private static final int CHECK_INTERVAL = 256;
+
+    private final ScheduleIndex index;
+    private final ScheduleProperties.LocalSearch settings;
+    private final SplittableRandom random;
+
+    // 最近一次尝试的改动，用于撤销
+    private int moveType;
+    private int geneA;
+    private int geneB;
+    private int oldDay;
+    private int oldPeriod;
+    private int oldRoom;
+
+    private int iterations;
+    // 允许改动的基因，为null时可以改动所有基因
+    private final int[] movableGenes;
+    private long timeBudgetMillis;
+
+    LocalSearch(ScheduleIndex index, ScheduleProperties.LocalSearch settings, SplittableRandom random) {
+        this.index = index;
+        this.settings = settings;
+        this.random = random;
+        this.movableGenes = index.warmStart != null ? index.warmStart.freeGenes : null;
+        this.timeBudgetMillis = settings.getTimeBudgetMillis();
+    }
+
+    /**
+     * 覆盖配置中的时间预算，截止时间模式下用到截止时间为止
+     */
+    void setTimeBudgetMillis(long timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    int iterations() {
+        return iterations;
+    }
+
+    /**
+     * 从给定染色体开始搜索，给定的染色体会被修改
+     *
+     * @return 搜索过程中冲突最少的染色体
+     */
+    ScheduleService.Chromosome run(ScheduleService.Chromosome start, ScheduleJob job) {
+        if (start.fitnessState == null) {
+            start.fitnessState = new IncrementalFitness(index, start);
+        }
+        start.fitness = start.fitnessState.fitness();
+        if (start.size() == 0 || (movableGenes != null && movableGenes.length == 0)) {
+            return start;
+        }
+        switch (settings.getMethod()) {
+            case ANNEALING:
+                return anneal(start, job);
+            case TABU:
+                return tabu(start, job);
+            default:
+                return start;
+        }
+    }
+
+    private ScheduleService.Chromosome anneal(ScheduleService.Chromosome current, ScheduleJob job) {
+        IncrementalFitness state = current.fitnessState;
+        ScheduleService.Chromosome best = new ScheduleService.Chromosome(current);
+        int bestConflicts = state.conflictCount();
+        int currentConflicts = bestConflicts;
+
+        long startNanos = System.nanoTime();
+        long budgetNanos = Math.max(1, timeBudgetMillis * 1_000_000L);
+        double initialTemperature = settings.getInitialTemperature();
+        double cooling = Math.log(settings.getFinalTemperature() / initialTemperature);
+        double temperature = initialTemperature;
+
+        while (bestConflicts > 0 && !limitReached()) {
+            if (iterations % CHECK_INTERVAL == 0) {
+                long elapsed = System.nanoTime() - startNanos;
+                if (elapsed >= budgetNanos || job.isCancelRequested()) {
+                    break;
+                }
+                // 按已用时间的比例几何降温
+                temperature = initialTemperature * Math.exp(cooling * elapsed / budgetNanos);
+            }
+            iterations++;
+
+            randomMove(current);
+            int conflicts = state.conflictCount();
+            int delta = conflicts - currentConflicts;
+            if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature)) {
+                currentConflicts = conflicts;
+                if (conflicts < bestConflicts) {
+                    bestConflicts = conflicts;
+                    best = new ScheduleService.Chromosome(current);
+                }
+            } else {
+                undo(current);
+            }
+        }
+        best.fitness = best.fitnessState.fitness();
+        return best;
+    }
+
+    private ScheduleService.Chromosome tabu(ScheduleService.Chromosome current, ScheduleJob job) {
+        IncrementalFitness state = current.fitnessState;
+        ScheduleService.Chromosome best = new ScheduleService.Chromosome(current);
+        int bestConflicts = state.conflictCount();
+
+        // 基因在第几轮之前处于禁忌状态
+        int[] tabuUntil = new int[current.size()];
+        int tenure = Math.max(1, settings.getTabuTenure());
+        int candidates = Math.max(1, settings.getTabuCandidates());
+
+        long deadline = System.nanoTime() + timeBudgetMillis * 1_000_000L;
+        int round = 0;
+
+        while (bestConflicts > 0 && !limitReached()) {
+            if (round % CHECK_INTERVAL == 0 && (System.nanoTime() >= deadline || job.isCancelRequested())) {
+                break;
+            }
+            round++;
+
+            // 抽样候选改动，记下最好的一个的随机状态，最后重放它
+            int chosenConflicts = Integer.MAX_VALUE;
+            long chosenSeed = 0;
+            for (int c = 0; c < candidates; c++) {
+                iterations++;
+                long seed = random.nextLong();
+                randomMove(current, new SplittableRandom(seed));
+                int conflicts = state.conflictCount();
+                boolean tabu = tabuUntil[geneA] > round || (moveType == 2 && tabuUntil[geneB] > round);
+                undo(current);
+                if ((!tabu || conflicts < bestConflicts) && conflicts < chosenConflicts) {
+                    chosenConflicts = conflicts;
+                    chosenSeed = seed;
+                }
+            }
+            if (chosenConflicts == Integer.MAX_VALUE) {
+                continue;  // 候选全部处于禁忌状态
+            }
+
+            randomMove(current, new SplittableRandom(chosenSeed));
+            tabuUntil[geneA] = round + tenure;
+            if (moveType == 2) {
+                tabuUntil[geneB] = round + tenure;
+            }
+            if (chosenConflicts < bestConflicts) {
+                bestConflicts = chosenConflicts;
+                best = new ScheduleService.Chromosome(current);
+            }
+        }
+        best.fitness = best.fitnessState.fitness();
+        return best;
+    }
+
+    private boolean limitReached() {
+        return settings.getMaxIterations() > 0 && iterations >= settings.getMaxIterations();
+    }
+
+    private void randomMove(ScheduleService.Chromosome chromosome) {
+        randomMove(chromosome, random);
+    }
+
+    /**
+     * 随机执行一个改动：一半概率移动单个基因的时间，两成更换教室，其余交换两个基因。
+     * 时间只移到课程合法的开始节次，交换后任一基因的开始节次不合法时改为移动单个基因
+     */
+    private void randomMove(ScheduleService.Chromosome chromosome, SplittableRandom moveRandom) {
+        IncrementalFitness state = chromosome.fitnessState;
+        int size = movableGenes != null ? movableGenes.length : chromosome.size();
+        geneA = gene(moveRandom.nextInt(size));
+        oldDay = chromosome.days[geneA];
+        oldPeriod = chromosome.periods[geneA];
+        oldRoom = chromosome.rooms[geneA];
+
+        int roll = moveRandom.nextInt(10);
+        if (roll >= 7 && size >= 2) {
+            int b = moveRandom.nextInt(size - 1);
+            geneB = gene(b);
+            if (geneB >= geneA) {
+                geneB = gene(b + 1);
+            }
+            ScheduleProblem problem = index.problem;
+            if (problem.isLegalStart(chromosome.courses[geneA], chromosome.periods[geneB])
+                    && problem.isLegalStart(chromosome.courses[geneB], oldPeriod)) {
+                moveType = 2;
+                swap(chromosome, geneA, geneB);
+                return;
+            }
+            roll = 0;
+        }
+        if (roll < 5 || size < 2) {
+            moveType = 0;
+            state.moveGene(geneA, moveRandom.nextInt(ScheduleService.DAYS) + 1,
+                    index.problem.randomStart(chromosome.courses[geneA], -1, moveRandom));
+        } else {
+            moveType = 1;
+            state.changeRoom(geneA, moveRandom.nextInt(index.classroomCount()));
+        }
+    }
+
+    /**
+     * 第i个允许改动的基因
+     */
+    private int gene(int i) {
+        return movableGenes != null ? movableGenes[i] : i;
+    }
+
+    private void undo(ScheduleService.Chromosome chromosome) {
+        IncrementalFitness state = chromosome.fitnessState;
+        switch (moveType) {
+            case 0:
+                state.moveGene(geneA, oldDay, oldPeriod);
+                break;
+            case 1:
+                state.changeRoom(geneA, oldRoom);
+                break;
+            default:
+                swap(chromosome, geneA, geneB);
+                break;
+        }
+    }
+
+    /**
+     * 交换两个基因的时间和教室
+     */
+    private static void swap(ScheduleService.Chromosome chromosome, int a, int b) {
+        IncrementalFitness state = chromosome.fitnessState;
+        int dayA = chromosome.days[a];
+        int periodA = chromosome.periods[a];
+        int roomA = chromosome.rooms[a];
+        state.moveGene(a, chromosome.days[b], chromosome.periods[b]);
+        state.changeRoom(a, chromosome.rooms[b]);
+        state.moveGene(b, dayA, periodA);
+        state.changeRoom(b, roomA);
+    }
+}
@@ -0,0 +1,37 @@
+package com.hangzhoudianzi.demo.service;
+
+/**
+ * 时段占用矩阵
+ * <p>
+ * 每个实体（教师、教室或班级）的每个时段用一个long表示，第 week-1 位为1表示该周已被占用。
+ * 冲突检查只需一次按位与：周次不相交的课程可以共用同一时段。
+ * 连排课程按节次位掩码整块占用，块内任何一节与已占用的周有重叠即为冲突。
+ */
+class OccupancyMatrix {
+    private static final int SLOTS = ScheduleService.DAYS * ScheduleService.PERIODS_PER_DAY;
+
+    private final long[] weeks;
+
+    OccupancyMatrix(int entityCount) {
+        this.weeks = new long[entityCount * SLOTS];
+    }
+
+    /**
+     * 占用同一天若干节的若干周，已占用的周保持占用
+     *
+     * @param periods 节次位掩码，第 节次-1 位为1，见 {@link ScheduleProblem#periodMask}
+     * @param weekMask 上课周次，见 {@link ScheduleProblem#weekMask}
+     * @return 这些节次的这些周原本都空闲时返回true，与已占用的周有重叠（冲突）时返回false
+     */
+    boolean occupy(int entity, int day, int periods, long weekMask) {
+        int base = entity * SLOTS + (day - 1) * ScheduleService.PERIODS_PER_DAY;
+        boolean free = true;
+        while (periods != 0) {
+            int slot = base + Integer.numberOfTrailingZeros(periods);
+            periods &= periods - 1;
+            free &= (weeks[slot] & weekMask) == 0;
+            weeks[slot] |= weekMask;
+        }
+        return free;
+    }
+}
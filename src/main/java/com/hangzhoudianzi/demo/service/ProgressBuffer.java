@@ -0,0 +1,38 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.pojo.dto.ScheduleProgressDTO;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个订阅者的进度事件缓冲区
+ * <p>
+ * 容量固定，写入永不阻塞：缓冲区满时丢弃最旧的事件。
+ * 排课线程只负责写入，推送由发送线程完成，客户端再慢也不会拖住排课。
+ */
+class ProgressBuffer {
+    private final ArrayBlockingQueue<ScheduleProgressDTO> queue;
+    private final AtomicLong dropped = new AtomicLong();
+
+    ProgressBuffer(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    void offer(ScheduleProgressDTO event) {
+        while (!queue.offer(event)) {
+            if (queue.poll() != null) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    int drainTo(List<ScheduleProgressDTO> events) {
+        return queue.drainTo(events);
+    }
+
+    long droppedCount() {
+        return dropped.get();
+    }
+}
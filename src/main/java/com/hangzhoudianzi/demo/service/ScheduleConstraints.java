@@ -0,0 +1,617 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.pojo.resource.ScheduleSettings;
+
+import java.util.*;
+
+/**
+ * 编译后的软约束流水线
+ * <p>
+ * 排课开始时由当前生效的排课设置编译一次：每个启用的约束成为一个带权重的评估器，
+ * 按固定顺序排列；未启用或权重为0的约束不进入流水线，适应度计算时不产生任何开销。
+ * <p>
+ * 评估器分两类，只对 教师-班级-时段 分组中下标最小的基因计分：
+ * {@link GeneTerm} 只看基因自身；{@link LoadTerm} 按分组累计计数，
+ * 状态保存在每个染色体自己的 {@link LoadState} 中，分组加入或离开时返回罚分的变化，供 {@link IncrementalFitness} 增量更新。
+ * 多数约束的状态是按下标计数的int数组；教室集中类约束每个对象只用到少数教室，状态为稀疏表。
+ * <p>
+ * 连排课程的合法开始节次也在这里编译，按连排节数存成节次位掩码，第 节次-1 位为1表示可以从该节开始。
+ */
+class ScheduleConstraints {
+    static final int SLOTS = ScheduleService.DAYS * ScheduleService.PERIODS_PER_DAY;
+    // 上午的最后一节，之后为下午
+    static final int LAST_MORNING_PERIOD = 4;
+
+    // 没有排课设置时的流水线，与原先写死的适应度规则一致
+    static final ScheduleConstraints DEFAULT = compile(null, Collections.emptyMap());
+
+    /**
+     * 只依赖单个基因的约束，返回未加权的罚分
+     */
+    interface GeneTerm {
+        int penalty(ScheduleProblem problem, int course, int room, int day, int period);
+    }
+
+    /**
+     * 按分组累计的约束
+     */
+    interface LoadTerm {
+        LoadState newState(ScheduleIndex index);
+
+        /**
+         * 一个分组加入（delta=1）或离开（delta=-1），返回未加权罚分的变化
+         */
+        int update(LoadState state, ScheduleIndex index, int teacher, int classIndex, int course, int room,
+                   int day, int period, int delta);
+    }
+
+    /**
+     * 累计约束在一个染色体上的状态，染色体复制时一起复制
+     */
+    interface LoadState {
+        LoadState copy();
+
+        void clear();
+    }
+
+    /**
+     * 状态为定长计数数组的累计约束
+     */
+    private abstract static class CountTerm implements LoadTerm {
+        public abstract int stateSize(ScheduleIndex index);
+
+        public abstract int update(int[] state, ScheduleIndex index, int teacher, int classIndex, int course,
+                                   int room, int day, int period, int delta);
+
+        @Override
+        public LoadState newState(ScheduleIndex index) {
+            return new Counts(new int[stateSize(index)]);
+        }
+
+        @Override
+        public int update(LoadState state, ScheduleIndex index, int teacher, int classIndex, int course, int room,
+                          int day, int period, int delta) {
+            return update(((Counts) state).counts, index, teacher, classIndex, course, room, day, period, delta);
+        }
+    }
+
+    private static final class Counts implements LoadState {
+        final int[] counts;
+
+        Counts(int[] counts) {
+            this.counts = counts;
+        }
+
+        @Override
+        public LoadState copy() {
+            return new Counts(counts.clone());
+        }
+
+        @Override
+        public void clear() {
+            Arrays.fill(counts, 0);
+        }
+    }
+
+    private final List<String> names = new ArrayList<>();
+    private final GeneTerm[] geneTerms;
+    private final int[] geneWeights;
+    private final LoadTerm[] loadTerms;
+    private final int[] loadWeights;
+    // 下标为连排节数
+    private final int[] blockStarts;
+
+    private ScheduleConstraints(Map<String, GeneTerm> genes, Map<String, LoadTerm> loads,
+                                Map<String, Integer> weights, int[] blockStarts) {
+        this.blockStarts = blockStarts;
+        List<GeneTerm> geneList = new ArrayList<>();
+        List<Integer> geneWeightList = new ArrayList<>();
+        for (Map.Entry<String, GeneTerm> entry : genes.entrySet()) {
+            int weight = weights.get(entry.getKey());
+            if (weight > 0) {
+                names.add(entry.getKey() + "×" + weight);
+                geneList.add(entry.getValue());
+                geneWeightList.add(weight);
+            }
+        }
+        List<LoadTerm> loadList = new ArrayList<>();
+        List<Integer> loadWeightList = new ArrayList<>();
+        for (Map.Entry<String, LoadTerm> entry : loads.entrySet()) {
+            int weight = weights.get(entry.getKey());
+            if (weight > 0) {
+                names.add(entry.getKey() + "×" + weight);
+                loadList.add(entry.getValue());
+                loadWeightList.add(weight);
+            }
+        }
+        this.geneTerms = geneList.toArray(new GeneTerm[0]);
+        this.geneWeights = geneWeightList.stream().mapToInt(Integer::intValue).toArray();
+        this.loadTerms = loadList.toArray(new LoadTerm[0]);
+        this.loadWeights = loadWeightList.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * 编译排课设置
+     *
+     * @param settings 当前生效的排课设置，为null时只包含默认约束
+     * @param weightOverrides 约束名 -> 权重，覆盖默认权重，0表示关闭该约束
+     */
+    static ScheduleConstraints compile(ScheduleSettings settings, Map<String, Integer> weightOverrides) {
+        Map<String, GeneTerm> genes = new LinkedHashMap<>();
+        Map<String, LoadTerm> loads = new LinkedHashMap<>();
+        Map<String, Integer> weights = new HashMap<>();
+
+        // 课程人数超过教室容量
+        genes.put("room-capacity", (problem, course, room, day, period) ->
+                problem.classSize[course] > problem.roomCapacity[room] ? 1 : 0);
+        weights.put("room-capacity", 3);
+
+        // 高优先级课程（1-2）在早上安排更好，无法解析优先级的课程不参与
+        genes.put("priority-morning", (problem, course, room, day, period) ->
+                problem.priority[course] <= 2 && period > LAST_MORNING_PERIOD ? 1 : 0);
+        weights.put("priority-morning", 1);
+
+        // 体育课安排在下午；没有要求只排下午时沿用原规则，只约束能解析优先级的体育课
+        boolean peAfternoonOnly = settings != null && settings.isPeClassAfternoonOnly();
+        genes.put("pe-afternoon", (problem, course, room, day, period) ->
+                problem.physicalEducation[course] && period <= LAST_MORNING_PERIOD
+                        && (peAfternoonOnly || problem.priority[course] != ScheduleProblem.NO_PRIORITY) ? 1 : 0);
+        weights.put("pe-afternoon", peAfternoonOnly ? 10 : 2);
+
+        // 教师一周的负载，按节数计，连排课程每节都计入
+        int maxPerWeek = settings != null && settings.getTeacherMaxPeriodsPerWeek() > 0
+                ? settings.getTeacherMaxPeriodsPerWeek() : 16;
+        loads.put("teacher-weekly-load", new CountTerm() {
+            @Override
+            public int stateSize(ScheduleIndex index) {
+                return index.teacherCount();
+            }
+
+            @Override
+            public int update(int[] state, ScheduleIndex index, int teacher, int classIndex, int course, int room,
+                              int day, int period, int delta) {
+                int before = Math.max(0, state[teacher] - maxPerWeek);
+                state[teacher] += delta * Integer.bitCount(index.problem.periodMask(course, period));
+                return Math.max(0, state[teacher] - maxPerWeek) - before;
+            }
+        });
+        weights.put("teacher-weekly-load", 1);
+
+        // 班级一周的课程分布
+        loads.put("class-daily-load", new CountTerm() {
+            @Override
+            public int stateSize(ScheduleIndex index) {
+                return index.classCount() * ScheduleService.DAYS;
+            }
+
+            @Override
+            public int update(int[] state, ScheduleIndex index, int teacher, int classIndex, int course, int room,
+                              int day, int period, int delta) {
+                int from = classIndex * ScheduleService.DAYS;
+                int before = dailyLoadPenalty(state, from);
+                state[from + day - 1] += delta;
+                return dailyLoadPenalty(state, from) - before;
+            }
+        });
+        weights.put("class-daily-load", 1);
+
+        if (settings != null) {
+            // 每天上课总节数少于时段数时，超出的节次不可用，连排课程每超出一节罚1分
+            int totalPeriods = settings.getTotalPeriodsPerDay();
+            if (totalPeriods > 0 && totalPeriods < ScheduleService.PERIODS_PER_DAY) {
+                genes.put("periods-per-day", (problem, course, room, day, period) ->
+                        Integer.bitCount(problem.periodMask(course, period) >>> totalPeriods));
+                weights.put("periods-per-day", 10);
+            }
+            if (settings.getTeacherMaxPeriodsPerDay() > 0) {
+                loads.put("teacher-daily-load", teacherDayLimit(settings.getTeacherMaxPeriodsPerDay(),
+                        1, ScheduleService.PERIODS_PER_DAY));
+                weights.put("teacher-daily-load", 2);
+            }
+            if (settings.getTeacherMaxMorningPeriods() > 0) {
+                loads.put("teacher-morning-load", teacherDayLimit(settings.getTeacherMaxMorningPeriods(),
+                        1, LAST_MORNING_PERIOD));
+                weights.put("teacher-morning-load", 2);
+            }
+            if (settings.getTeacherMaxAfternoonPeriods() > 0) {
+                loads.put("teacher-afternoon-load", teacherDayLimit(settings.getTeacherMaxAfternoonPeriods(),
+                        LAST_MORNING_PERIOD + 1, ScheduleService.PERIODS_PER_DAY));
+                weights.put("teacher-afternoon-load", 2);
+            }
+            if (!settings.isScheduleAfterPeClass()) {
+                loads.put("after-pe", new AfterPeTerm());
+                weights.put("after-pe", 2);
+            }
+            if (settings.isSameClassroomForSameCourse()) {
+                loads.put("same-room-for-course", new DistinctRoomTerm() {
+                    @Override
+                    int owners(ScheduleIndex index) {
+                        return index.courseCount();
+                    }
+
+                    @Override
+                    int owner(int teacher, int classIndex, int course) {
+                        return course;
+                    }
+                });
+                weights.put("same-room-for-course", 1);
+            }
+            if (settings.isConcentrateClassroomForClass()) {
+                loads.put("class-room-concentration", new DistinctRoomTerm() {
+                    @Override
+                    int owners(ScheduleIndex index) {
+                        return index.classCount();
+                    }
+
+                    @Override
+                    int owner(int teacher, int classIndex, int course) {
+                        return classIndex;
+                    }
+                });
+                weights.put("class-room-concentration", 1);
+            }
+            if (settings.isConcentrateClassroomForTeacher()) {
+                loads.put("teacher-room-concentration", new DistinctRoomTerm() {
+                    @Override
+                    int owners(ScheduleIndex index) {
+                        return index.teacherCount();
+                    }
+
+                    @Override
+                    int owner(int teacher, int classIndex, int course) {
+                        return teacher;
+                    }
+                });
+                weights.put("teacher-room-concentration", 1);
+            }
+        }
+
+        for (Map.Entry<String, Integer> entry : weightOverrides.entrySet()) {
+            if (weights.containsKey(entry.getKey()) && entry.getValue() != null) {
+                weights.put(entry.getKey(), Math.max(0, entry.getValue()));
+            } else {
+                System.out.println("警告：约束 " + entry.getKey() + " 未启用或不存在，忽略其权重");
+            }
+        }
+        return new ScheduleConstraints(genes, loads, weights, compileBlockStarts(settings));
+    }
+
+    /**
+     * 每种连排节数的合法开始节次：整块必须落在同一天内，
+     * 两节、四节连排再限制为排课设置中的开始节次，设置为空时不限制
+     */
+    private static int[] compileBlockStarts(ScheduleSettings settings) {
+        int[] starts = new int[ScheduleService.PERIODS_PER_DAY + 1];
+        for (int length = 1; length <= ScheduleService.PERIODS_PER_DAY; length++) {
+            starts[length] = (1 << (ScheduleService.PERIODS_PER_DAY - length + 1)) - 1;
+        }
+        if (settings != null) {
+            starts[2] &= periodMask(settings.getTwoPeriodBlockStart());
+            starts[4] &= periodMask(settings.getFourPeriodBlockStart());
+        }
+        return starts;
+    }
+
+    private static int periodMask(List<Integer> periods) {
+        if (periods == null || periods.isEmpty()) {
+            return -1;
+        }
+        int mask = 0;
+        for (Integer period : periods) {
+            if (period != null && period >= 1 && period <= ScheduleService.PERIODS_PER_DAY) {
+                mask |= 1 << (period - 1);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * 连排节数对应的合法开始节次掩码，可能为0（设置中的开始节次都放不下整块）
+     */
+    int blockStarts(int length) {
+        return blockStarts[length];
+    }
+
+    /**
+     * 单个基因的加权罚分
+     */
+    int genePenalty(ScheduleProblem problem, int course, int room, int day, int period) {
+        int penalty = 0;
+        for (int i = 0; i < geneTerms.length; i++) {
+            penalty += geneWeights[i] * geneTerms[i].penalty(problem, course, room, day, period);
+        }
+        return penalty;
+    }
+
+    /**
+     * 为一个染色体分配各累计约束的状态
+     */
+    LoadState[] newLoadState(ScheduleIndex index) {
+        LoadState[] state = new LoadState[loadTerms.length];
+        for (int i = 0; i < loadTerms.length; i++) {
+            state[i] = loadTerms[i].newState(index);
+        }
+        return state;
+    }
+
+    /**
+     * 一个分组加入或离开，返回加权罚分的变化
+     */
+    int updateLoads(LoadState[] state, ScheduleIndex index, int teacher, int classIndex, int course, int room,
+                    int day, int period, int delta) {
+        int change = 0;
+        for (int i = 0; i < loadTerms.length; i++) {
+            change += loadWeights[i] * loadTerms[i].update(state[i], index, teacher, classIndex, course, room,
+                    day, period, delta);
+        }
+        return change;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(", ", names);
+    }
+
+    /**
+     * 班级一周课程分布罚分
+     *
+     * @param dayLoads 从 from 开始的 DAYS 个元素为班级每天的课程数，没有课的天不参与统计
+     */
+    static int dailyLoadPenalty(int[] dayLoads, int from) {
+        int activeDays = 0;
+        int total = 0;
+        for (int d = from; d < from + ScheduleService.DAYS; d++) {
+            if (dayLoads[d] > 0) {
+                activeDays++;
+                total += dayLoads[d];
+            }
+        }
+        if (activeDays == 0) {
+            return 0;
+        }
+        int penalty = 0;
+
+        // 计算每天课程数的标准差，标准差越小表示分布越均匀
+        double mean = (double) total / activeDays;
+        double variance = 0;
+        for (int d = from; d < from + ScheduleService.DAYS; d++) {
+            if (dayLoads[d] > 0) {
+                variance += Math.pow(dayLoads[d] - mean, 2);
+            }
+        }
+        variance /= activeDays;
+        double stdDev = Math.sqrt(variance);
+
+        // 标准差大于1.5表示分布不均匀，增加惩罚
+        if (stdDev > 1.5) {
+            penalty += Math.round(stdDev);
+        }
+
+        // 检查每天课程数是否过多
+        for (int d = from; d < from + ScheduleService.DAYS; d++) {
+            if (dayLoads[d] > 8) {  // 如果一天超过8节课
+                penalty += (dayLoads[d] - 8) * 2;
+            }
+        }
+        return penalty;
+    }
+
+    /**
+     * 教师每天在 [firstPeriod, lastPeriod] 节次内的课时上限，超过的每节罚1分。
+     * 连排课程按落在范围内的节数计入，跨上午和下午的连排分别计入两边
+     */
+    private static LoadTerm teacherDayLimit(int max, int firstPeriod, int lastPeriod) {
+        int window = ((1 << lastPeriod) - 1) & ~((1 << (firstPeriod - 1)) - 1);
+        return new CountTerm() {
+            @Override
+            public int stateSize(ScheduleIndex index) {
+                return index.teacherCount() * ScheduleService.DAYS;
+            }
+
+            @Override
+            public int update(int[] state, ScheduleIndex index, int teacher, int classIndex, int course, int room,
+                              int day, int period, int delta) {
+                int periods = Integer.bitCount(index.problem.periodMask(course, period) & window);
+                if (periods == 0) {
+                    return 0;
+                }
+                int key = teacher * ScheduleService.DAYS + day - 1;
+                int before = Math.max(0, state[key] - max);
+                state[key] += delta * periods;
+                return Math.max(0, state[key] - max) - before;
+            }
+        };
+    }
+
+    /**
+     * 体育课后不安排其他课程：班级同一天体育课的下一节有其他课程时罚1分。
+     * 连排课程占用的每一节都计入，体育课连排块内部的相邻节次不算。
+     * 状态前半部分为 班级-节次 的体育课分组数，后半部分为其他课程的分组数
+     */
+    private static class AfterPeTerm extends CountTerm {
+        @Override
+        public int stateSize(ScheduleIndex index) {
+            return index.classCount() * SLOTS * 2;
+        }
+
+        @Override
+        public int update(int[] state, ScheduleIndex index, int teacher, int classIndex, int course, int room,
+                          int day, int period, int delta) {
+            int mask = index.problem.periodMask(course, period);
+            int dayStart = classIndex * SLOTS + (day - 1) * ScheduleService.PERIODS_PER_DAY;
+            // 受影响的是块前一节到块最后一节的相邻节次对
+            int first = Math.max(1, period - 1);
+            int last = Math.min(ScheduleService.PERIODS_PER_DAY - 1, period + Integer.bitCount(mask) - 1);
+            int before = pairs(state, dayStart, first, last);
+            int offset = index.problem.physicalEducation[course] ? 0 : state.length / 2;
+            for (int bits = mask; bits != 0; bits &= bits - 1) {
+                state[offset + dayStart + Integer.numberOfTrailingZeros(bits)] += delta;
+            }
+            return pairs(state, dayStart, first, last) - before;
+        }
+
+        // 第 p 节有体育课且第 p+1 节有其他课程的节次对数，p 在 [first, last] 内
+        private static int pairs(int[] state, int dayStart, int first, int last) {
+            int pairs = 0;
+            for (int p = first; p <= last; p++) {
+                if (state[dayStart + p - 1] > 0 && state[state.length / 2 + dayStart + p] > 0) {
+                    pairs++;
+                }
+            }
+            return pairs;
+        }
+    }
+
+    /**
+     * 教室集中：每个对象（课程、班级或教师）多用一间教室罚1分。
+     * 每个对象只用到少数教室，状态只记录实际用到的 对象-教室 组合，见 {@link RoomUse}
+     */
+    private abstract static class DistinctRoomTerm implements LoadTerm {
+        abstract int owners(ScheduleIndex index);
+
+        abstract int owner(int teacher, int classIndex, int course);
+
+        @Override
+        public LoadState newState(ScheduleIndex index) {
+            return new RoomUse(owners(index));
+        }
+
+        @Override
+        public int update(LoadState state, ScheduleIndex index, int teacher, int classIndex, int course, int room,
+                          int day, int period, int delta) {
+            RoomUse use = (RoomUse) state;
+            int owner = owner(teacher, classIndex, course);
+            int before = Math.max(0, use.distinct[owner] - 1);
+            long key = (long) owner * index.classroomCount() + room;
+            if (delta > 0 && use.add(key) == 1) {
+                use.distinct[owner]++;
+            } else if (delta < 0 && use.remove(key) == 0) {
+                use.distinct[owner]--;
+            }
+            return Math.max(0, use.distinct[owner] - 1) - before;
+        }
+    }
+
+    /**
+     * 对象-教室 的分组数，开放寻址（线性探测）哈希表，只保存计数大于0的组合，
+     * 大小与染色体中的分组数成正比，与 对象数×教室数 无关
+     */
+    static final class RoomUse implements LoadState {
+        private static final long EMPTY = -1L;
+        private static final int INITIAL_CAPACITY = 16;
+
+        // 每个对象使用的教室数
+        final int[] distinct;
+        private long[] keys;
+        private int[] counts;
+        private int size;
+
+        RoomUse(int owners) {
+            this.distinct = new int[owners];
+            this.keys = new long[INITIAL_CAPACITY];
+            this.counts = new int[INITIAL_CAPACITY];
+            Arrays.fill(keys, EMPTY);
+        }
+
+        private RoomUse(RoomUse other) {
+            this.distinct = other.distinct.clone();
+            this.keys = other.keys.clone();
+            this.counts = other.counts.clone();
+            this.size = other.size;
+        }
+
+        /**
+         * 组合的分组数加1，返回加后的数量
+         */
+        int add(long key) {
+            int slot = find(key);
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                size++;
+                if (size * 2 > keys.length) {
+                    grow();
+                    slot = find(key);
+                }
+            }
+            return ++counts[slot];
+        }
+
+        /**
+         * 组合的分组数减1，返回减后的数量；减到0时从表中删除
+         */
+        int remove(long key) {
+            int slot = find(key);
+            if (keys[slot] == EMPTY) {
+                return 0;
+            }
+            int count = --counts[slot];
+            if (count == 0) {
+                delete(slot);
+            }
+            return count;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private int find(long key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        // 向后移动删除：把探测链上后面的元素移到空位，不留删除标记
+        private void delete(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            for (int i = (hole + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+                int home = hash(keys[i]) & mask;
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    counts[hole] = counts[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = EMPTY;
+            counts[hole] = 0;
+            size--;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            counts = new int[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = find(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        @Override
+        public LoadState copy() {
+            return new RoomUse(this);
+        }
+
+        @Override
+        public void clear() {
+            Arrays.fill(distinct, 0);
+            Arrays.fill(keys, EMPTY);
+            Arrays.fill(counts, 0);
+            size = 0;
+        }
+    }
+}
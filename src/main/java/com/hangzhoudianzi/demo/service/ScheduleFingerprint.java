@@ -0,0 +1,64 @@
+package com.hangzhoudianzi.demo.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * 排课输入的指纹
+ * <p>
+ * 对参与排课的数据按顺序做SHA-256：每条记录取Lombok生成的toString，包含所有字段，
+ * 任何一条记录的任何字段变化都会得到不同的指纹。记录顺序也参与计算，
+ * 因为排课问题按列表顺序分配下标，顺序不同结果也可能不同。
+ * 每个值前写入名称和长度，避免相邻的值拼接后产生歧义。
+ */
+class ScheduleFingerprint {
+    private final MessageDigest digest;
+
+    ScheduleFingerprint() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("缺少SHA-256算法", e);
+        }
+    }
+
+    ScheduleFingerprint add(String name, Object value) {
+        update(name);
+        update(value != null ? value.toString() : null);
+        return this;
+    }
+
+    ScheduleFingerprint addAll(String name, List<?> values) {
+        update(name);
+        update(String.valueOf(values.size()));
+        for (Object value : values) {
+            update(value != null ? value.toString() : null);
+        }
+        return this;
+    }
+
+    private void update(String value) {
+        if (value == null) {
+            digest.update((byte) 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) 1);
+        digest.update(new byte[]{(byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16),
+                (byte) (bytes.length >>> 8), (byte) bytes.length});
+        digest.update(bytes);
+    }
+
+    /**
+     * 十六进制的指纹，调用后不能再添加数据
+     */
+    String value() {
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
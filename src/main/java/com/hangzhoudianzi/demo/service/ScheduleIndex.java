@@ -0,0 +1,122 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.pojo.people.Course;
+import com.hangzhoudianzi.demo.pojo.people.Teacher;
+import com.hangzhoudianzi.demo.pojo.resource.Classroom;
+
+import java.util.*;
+
+/**
+ * 排课索引
+ * <p>
+ * 一次排课使用的下标视图：课程、教师、教室的下标来自共享的 {@link ScheduleProblem}，
+ * 本次参与排课的班级ID再映射为从0开始的班级下标。
+ * 遗传算法内部只使用这些下标，保存到数据库时再还原为原始ID。
+ * <p>
+ * 多个班级联合排课时教师和教室在班级之间共享，适应度需要额外检查跨班级的占用冲突。
+ * 增量排课时带有 {@link WarmStart}，其中固定的基因在进化和局部搜索中都不改动。
+ */
+class ScheduleIndex {
+    final ScheduleProblem problem;
+    // 是否联合排课：教师和教室在各班级之间共享
+    final boolean sharedResources;
+    // 增量排课的起点，为null时从随机染色体开始
+    final WarmStart warmStart;
+    private final int[] classIds;
+    private final Map<Integer, Integer> classIndex = new HashMap<>();
+
+    ScheduleIndex(List<Course> courses, List<Teacher> teachers, List<Classroom> classrooms, int... classIds) {
+        this(new ScheduleProblem(courses, teachers, classrooms), classIds);
+    }
+
+    ScheduleIndex(ScheduleProblem problem, int... classIds) {
+        this(problem, false, classIds);
+    }
+
+    ScheduleIndex(ScheduleProblem problem, boolean sharedResources, int... classIds) {
+        this(problem, sharedResources, null, classIds);
+    }
+
+    /**
+     * 单个班级的增量排课
+     */
+    ScheduleIndex(ScheduleProblem problem, WarmStart warmStart, int classId) {
+        this(problem, false, warmStart, classId);
+    }
+
+    private ScheduleIndex(ScheduleProblem problem, boolean sharedResources, WarmStart warmStart, int... classIds) {
+        this.problem = problem;
+        this.sharedResources = sharedResources;
+        this.warmStart = warmStart;
+        for (int i = 0; i < classIds.length; i++) {
+            classIndex.put(classIds[i], i);
+        }
+        this.classIds = classIds.clone();
+    }
+
+    int courseCount() {
+        return problem.courseCount();
+    }
+
+    int teacherCount() {
+        return problem.teacherCount();
+    }
+
+    int classroomCount() {
+        return problem.classroomCount();
+    }
+
+    int classCount() {
+        return classIds.length;
+    }
+
+    Course course(int index) {
+        return problem.course(index);
+    }
+
+    Teacher teacher(int index) {
+        return problem.teacher(index);
+    }
+
+    Classroom classroom(int index) {
+        return problem.classroom(index);
+    }
+
+    String courseId(int index) {
+        return problem.course(index).getId();
+    }
+
+    String teacherId(int index) {
+        return problem.teacher(index).getId();
+    }
+
+    String classroomId(int index) {
+        return problem.classroom(index).getId();
+    }
+
+    int classId(int index) {
+        return classIds[index];
+    }
+
+    /**
+     * @return 教师下标，不存在时返回-1
+     */
+    int indexOfTeacher(String teacherId) {
+        return problem.indexOfTeacher(teacherId);
+    }
+
+    /**
+     * @return 班级下标，不存在时返回-1
+     */
+    int indexOfClass(int classId) {
+        Integer index = classIndex.get(classId);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * 基因是否在增量排课中固定
+     */
+    boolean isPinned(int gene) {
+        return warmStart != null && warmStart.isPinned(gene);
+    }
+}
@@ -0,0 +1,313 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.pojo.dto.ScheduleProgressDTO;
+import com.hangzhoudianzi.demo.pojo.resource.Timetable;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一次排课任务
+ * <p>
+ * 保存排课参数，并记录运行过程中的状态、当前代数、最佳适应度和结果。
+ * 排课线程写入进度，查询线程读取，字段都用volatile保证可见性。
+ * 同步排课接口也会创建一个不登记的任务，用来传递参数。
+ * <p>
+ * 有订阅者时，进度按最小间隔节流后写入各订阅者的 {@link ProgressBuffer}，写入不会阻塞排课线程；
+ * 任务开始和结束时的事件不节流。
+ */
+@Getter
+public class ScheduleJob {
+
+    public enum Status {
+        PENDING,     // 排队中
+        RUNNING,     // 运行中
+        COMPLETED,   // 已完成
+        FAILED,      // 失败
+        CANCELLED    // 已取消
+    }
+
+    public enum Engine {
+        GA,   // 遗传算法
+        CSP   // 约束传播 + 回溯搜索，找不到无冲突课表时改用遗传算法
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String description;
+    // 参与排课的班级ID
+    private final int[] classIds;
+    // 是否联合排课
+    private final boolean joint;
+    private final Long seed;
+    // 完成后是否自动保存到数据库
+    private final boolean persist;
+    private volatile Engine engine = Engine.GA;
+    // 时间预算（毫秒），为null时按固定代数和提前终止条件进化
+    private volatile Long timeBudgetMillis;
+    @Getter(AccessLevel.NONE)
+    private volatile long deadlineNanos;
+    private final long createdAt = System.currentTimeMillis();
+
+    private volatile Status status = Status.PENDING;
+    private volatile int generation;
+    private volatile double bestFitness;
+    private volatile double meanFitness;
+    // 实际使用的种群大小，截止时间模式下按评估速度调整
+    private volatile int populationSize;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile boolean cancelRequested;
+    private volatile boolean persisted;
+    // 结果是否直接取自缓存
+    private volatile boolean cacheHit;
+    private volatile String message;
+    // 班级ID -> 排课结果
+    private volatile Map<Integer, List<Timetable>> result;
+
+    // 已评估的染色体数
+    @Getter(AccessLevel.NONE)
+    private final LongAdder evaluations = new LongAdder();
+    // 所有班级（多班级独立排课时每个班级一次搜索）累计进化的代数和最终冲突数，
+    // generation 和 bestFitness 只是最后一次报告的进度
+    @Getter(AccessLevel.NONE)
+    private final LongAdder totalGenerations = new LongAdder();
+    @Getter(AccessLevel.NONE)
+    private final LongAdder totalConflicts = new LongAdder();
+    @Getter(AccessLevel.NONE)
+    private final List<ProgressBuffer> subscribers = new CopyOnWriteArrayList<>();
+    // 两次进度事件之间的最小间隔
+    @Getter(AccessLevel.NONE)
+    private volatile long progressIntervalMillis = 200;
+    @Getter(AccessLevel.NONE)
+    private long lastPublishedAt;
+
+    private ScheduleJob(String description, int[] classIds, boolean joint, Long seed, boolean persist) {
+        this.description = description;
+        this.classIds = classIds;
+        this.joint = joint;
+        this.seed = seed;
+        this.persist = persist;
+    }
+
+    public static ScheduleJob singleClass(int classId, Long seed, boolean persist) {
+        return new ScheduleJob("第" + classId + "班排课", new int[]{classId}, false, seed, persist);
+    }
+
+    /**
+     * 多班级排课，班级ID为1到classCount
+     */
+    public static ScheduleJob multiClass(int classCount, boolean joint, Long seed, boolean persist) {
+        int[] classIds = new int[classCount];
+        for (int c = 0; c < classCount; c++) {
+            classIds[c] = c + 1;
+        }
+        return new ScheduleJob(classCount + "个班级" + (joint ? "联合" : "") + "排课", classIds, joint, seed, persist);
+    }
+
+    /**
+     * 指定排课引擎，为null时使用遗传算法
+     */
+    public ScheduleJob withEngine(Engine engine) {
+        this.engine = engine != null ? engine : Engine.GA;
+        return this;
+    }
+
+    /**
+     * 指定时间预算，排课在截止时间前持续改进并返回目前最好的结果；为null时不限时间
+     */
+    public ScheduleJob withTimeBudget(Long timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+        return this;
+    }
+
+    public int[] getClassIds() {
+        return classIds.clone();
+    }
+
+    /**
+     * 已运行的毫秒数，未开始时为0
+     */
+    public long getElapsedMillis() {
+        if (startedAt == 0) {
+            return 0;
+        }
+        return (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+    }
+
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    long getTotalGenerations() {
+        return totalGenerations.sum();
+    }
+
+    long getTotalConflicts() {
+        return totalConflicts.sum();
+    }
+
+    /**
+     * 每秒评估的染色体数，按开始以来的平均值计算
+     */
+    public double getEvaluationsPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed > 0 ? getEvaluations() * 1000.0 / elapsed : 0.0;
+    }
+
+    /**
+     * 当前最佳方案的冲突数，由适应度 1/(1+冲突数) 换算
+     */
+    public int getConflictCount() {
+        return conflicts(bestFitness);
+    }
+
+    static int conflicts(double fitness) {
+        return fitness > 0 ? (int) Math.round(1.0 / fitness - 1.0) : 0;
+    }
+
+    /**
+     * 当前进度的快照
+     */
+    public ScheduleProgressDTO progress() {
+        ScheduleProgressDTO progress = new ScheduleProgressDTO();
+        progress.setJobId(id);
+        progress.setStatus(status.name());
+        progress.setGeneration(generation);
+        progress.setBestFitness(bestFitness);
+        progress.setMeanFitness(meanFitness);
+        progress.setConflictCount(getConflictCount());
+        progress.setEvaluationsPerSecond(getEvaluationsPerSecond());
+        progress.setElapsedMillis(getElapsedMillis());
+        return progress;
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    /**
+     * 请求取消，排课线程在代与代之间检查并停止
+     */
+    public void cancel() {
+        cancelRequested = true;
+    }
+
+    /**
+     * 记录进化进度，多班级独立排课时由多个线程调用
+     */
+    synchronized void reportGeneration(int generation, double bestFitness, double meanFitness) {
+        this.generation = generation;
+        this.bestFitness = bestFitness;
+        this.meanFitness = meanFitness;
+
+        long now = System.currentTimeMillis();
+        if (!subscribers.isEmpty() && now - lastPublishedAt >= progressIntervalMillis) {
+            lastPublishedAt = now;
+            publish();
+        }
+    }
+
+    /**
+     * 开始计时，截止时间从这里算起
+     */
+    void startClock() {
+        if (timeBudgetMillis != null) {
+            deadlineNanos = System.nanoTime() + timeBudgetMillis * 1_000_000L;
+        }
+    }
+
+    boolean hasDeadline() {
+        return timeBudgetMillis != null;
+    }
+
+    /**
+     * 距截止时间的纳秒数，已过截止时间时为负数
+     */
+    long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    long deadlineNanos() {
+        return deadlineNanos;
+    }
+
+    void recordPopulationSize(int populationSize) {
+        this.populationSize = populationSize;
+    }
+
+    void recordEvaluations(long count) {
+        evaluations.add(count);
+    }
+
+    void recordGenerations(long count) {
+        totalGenerations.add(count);
+    }
+
+    /**
+     * 一次搜索（一个班级，或联合排课的全部班级）结束，记录最终方案的冲突数
+     */
+    void recordSearchResult(double fitness) {
+        totalConflicts.add(conflicts(fitness));
+    }
+
+    void subscribe(ProgressBuffer buffer) {
+        subscribers.add(buffer);
+    }
+
+    void unsubscribe(ProgressBuffer buffer) {
+        subscribers.remove(buffer);
+    }
+
+    void setProgressIntervalMillis(long progressIntervalMillis) {
+        this.progressIntervalMillis = progressIntervalMillis;
+    }
+
+    private void publish() {
+        ScheduleProgressDTO progress = progress();
+        for (ProgressBuffer buffer : subscribers) {
+            buffer.offer(progress);
+        }
+    }
+
+    void start() {
+        startedAt = System.currentTimeMillis();
+        status = Status.RUNNING;
+        publish();
+    }
+
+    void complete(Map<Integer, List<Timetable>> result) {
+        this.result = result;
+        finish(Status.COMPLETED, null);
+    }
+
+    void fail(String message) {
+        finish(Status.FAILED, message);
+    }
+
+    void cancelled() {
+        finish(Status.CANCELLED, "任务已取消");
+    }
+
+    void markCacheHit() {
+        cacheHit = true;
+    }
+
+    void markPersisted() {
+        persisted = true;
+    }
+
+    private void finish(Status status, String message) {
+        if (startedAt == 0) {
+            startedAt = System.currentTimeMillis();
+        }
+        this.message = message;
+        this.finishedAt = System.currentTimeMillis();
+        this.status = status;
+        publish();
+    }
+}
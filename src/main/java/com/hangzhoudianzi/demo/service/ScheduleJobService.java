@@ -0,0 +1,148 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.config.ScheduleProperties;
+import com.hangzhoudianzi.demo.pojo.resource.Timetable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步排课任务
+ * <p>
+ * 提交后立即返回任务，排课在后台线程池中执行，可以随时查询进度或取消。
+ * 任务登记在内存中，数量有上限；已结束的任务超过保留时间后清理。
+ */
+@Service
+public class ScheduleJobService {
+    @Autowired
+    private ScheduleService scheduleService;
+    @Autowired
+    private ScheduleProperties scheduleProperties;
+
+    private final Map<String, ScheduleJob> jobs = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void initExecutor() {
+        executor = Executors.newFixedThreadPool(Math.max(1, scheduleProperties.getJob().getThreads()));
+    }
+
+    @PreDestroy
+    public void shutdownExecutor() {
+        // 让运行中的任务在下一代结束时停下来
+        jobs.values().forEach(ScheduleJob::cancel);
+        executor.shutdownNow();
+    }
+
+    /**
+     * 提交排课任务
+     *
+     * @throws IllegalStateException 登记的任务数已达上限且没有可清理的已结束任务
+     */
+    public synchronized ScheduleJob submit(ScheduleJob job) {
+        evictExpired();
+        if (jobs.size() >= scheduleProperties.getJob().getMaxJobs()) {
+            // 已满时先清理最早结束的任务
+            Optional<ScheduleJob> oldest = jobs.values().stream()
+                    .filter(ScheduleJob::isFinished)
+                    .min(Comparator.comparingLong(ScheduleJob::getFinishedAt));
+            oldest.ifPresent(j -> jobs.remove(j.getId()));
+        }
+        if (jobs.size() >= scheduleProperties.getJob().getMaxJobs()) {
+            throw new IllegalStateException("排课任务过多，请稍后再试");
+        }
+        job.setProgressIntervalMillis(scheduleProperties.getProgress().getMinIntervalMillis());
+        jobs.put(job.getId(), job);
+        executor.submit(() -> run(job));
+        System.out.println("已提交排课任务 " + job.getId() + "：" + job.getDescription());
+        return job;
+    }
+
+    /**
+     * @return 任务，不存在或已被清理时返回null
+     */
+    public ScheduleJob getJob(String jobId) {
+        evictExpired();
+        return jobs.get(jobId);
+    }
+
+    /**
+     * 请求取消任务，排队中的任务不会再开始，运行中的任务在代与代之间停止
+     *
+     * @return 任务，不存在时返回null
+     */
+    public ScheduleJob cancel(String jobId) {
+        ScheduleJob job = getJob(jobId);
+        if (job != null && !job.isFinished()) {
+            job.cancel();
+        }
+        return job;
+    }
+
+    /**
+     * 把已完成任务的结果保存到数据库，同一任务只保存一次
+     *
+     * @return 任务，不存在时返回null
+     * @throws IllegalStateException 任务尚未完成
+     */
+    public ScheduleJob persist(String jobId) {
+        ScheduleJob job = getJob(jobId);
+        if (job == null) {
+            return null;
+        }
+        if (job.getStatus() != ScheduleJob.Status.COMPLETED) {
+            throw new IllegalStateException("任务尚未完成，无法保存");
+        }
+        persistResult(job);
+        return job;
+    }
+
+    private void persistResult(ScheduleJob job) {
+        synchronized (job) {
+            if (!job.isPersisted()) {
+                scheduleService.saveSchedule(job.getResult());
+                job.markPersisted();
+            }
+        }
+    }
+
+    private void run(ScheduleJob job) {
+        if (job.isCancelRequested()) {
+            job.cancelled();
+            return;
+        }
+        job.start();
+        try {
+            Map<Integer, List<Timetable>> result = scheduleService.solve(job);
+            if (job.isCancelRequested()) {
+                // 取消的任务只得到部分结果，不保留
+                job.cancelled();
+                return;
+            }
+            job.complete(result);
+            if (job.isPersist()) {
+                persistResult(job);
+            }
+            System.out.println("排课任务 " + job.getId() + " 完成，用时 " + job.getElapsedMillis() + " 毫秒");
+        } catch (Exception e) {
+            e.printStackTrace();
+            job.fail(e.getMessage());
+        }
+    }
+
+    private void evictExpired() {
+        long ttlMillis = TimeUnit.MINUTES.toMillis(scheduleProperties.getJob().getTtlMinutes());
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf(job -> job.isFinished() && now - job.getFinishedAt() > ttlMillis);
+    }
+}
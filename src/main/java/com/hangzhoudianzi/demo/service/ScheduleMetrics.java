@@ -0,0 +1,89 @@
+package com.hangzhoudianzi.demo.service;
+
+import io.micrometer.core.instrument.*;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 排课指标，通过 actuator 的 /actuator/metrics 暴露
+ * <p>
+ * 所有指标在构造时注册，之后只在阶段边界记录一次：加载数据、进化、保存各记一次耗时，
+ * 进化结束后按任务中已经累计的代数和评估次数记一次，遗传算法的循环里不记录任何指标。
+ * 代数和冲突数取所有班级的累计值，多班级并行排课时不会只反映最后报告进度的班级。
+ */
+@Service
+public class ScheduleMetrics {
+    private final Timer loadTimer;
+    private final Timer evolveTimer;
+    private final Timer persistTimer;
+    private final Counter generations;
+    private final Counter evaluations;
+    private final DistributionSummary evaluationsPerSecond;
+    private final DistributionSummary conflicts;
+    private final DistributionSummary rowsWritten;
+    private final Counter cacheHits;
+
+    public ScheduleMetrics(MeterRegistry registry) {
+        this.loadTimer = phaseTimer(registry, "load");
+        this.evolveTimer = phaseTimer(registry, "evolve");
+        this.persistTimer = phaseTimer(registry, "persist");
+        this.generations = Counter.builder("schedule.generations")
+                .description("遗传算法进化的代数")
+                .register(registry);
+        this.evaluations = Counter.builder("schedule.evaluations")
+                .description("适应度评估次数，约束传播为搜索节点数")
+                .register(registry);
+        this.evaluationsPerSecond = DistributionSummary.builder("schedule.evaluations.rate")
+                .description("每次排课的每秒评估次数")
+                .baseUnit("evaluations/s")
+                .register(registry);
+        this.conflicts = DistributionSummary.builder("schedule.conflicts")
+                .description("排课结束时各班级最佳方案的冲突数之和")
+                .register(registry);
+        this.rowsWritten = DistributionSummary.builder("schedule.rows.written")
+                .description("每次保存写入数据库的课表记录数")
+                .baseUnit("rows")
+                .register(registry);
+        this.cacheHits = Counter.builder("schedule.cache.hits")
+                .description("直接使用缓存结果的排课次数")
+                .register(registry);
+    }
+
+    private static Timer phaseTimer(MeterRegistry registry, String phase) {
+        return Timer.builder("schedule.solve.duration")
+                .description("排课各阶段耗时")
+                .tag("phase", phase)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    void recordLoad(long nanos) {
+        loadTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录一次保存的耗时和写入的记录数
+     */
+    void recordPersist(long nanos, int rows) {
+        persistTimer.record(nanos, TimeUnit.NANOSECONDS);
+        rowsWritten.record(rows);
+    }
+
+    /**
+     * 进化结束后记录进化耗时，以及任务中所有班级累计的代数、评估次数和最终冲突数
+     */
+    void recordSolve(ScheduleJob job, long evolveNanos) {
+        evolveTimer.record(evolveNanos, TimeUnit.NANOSECONDS);
+        generations.increment(job.getTotalGenerations());
+        evaluations.increment(job.getEvaluations());
+        if (evolveNanos > 0) {
+            evaluationsPerSecond.record(job.getEvaluations() * 1e9 / evolveNanos);
+        }
+        conflicts.record(job.getTotalConflicts());
+    }
+
+    void recordCacheHit() {
+        cacheHits.increment();
+    }
+}
@@ -0,0 +1,255 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.pojo.people.Course;
+import com.hangzhoudianzi.demo.pojo.people.Teacher;
+import com.hangzhoudianzi.demo.pojo.resource.Classroom;
+
+import java.util.*;
+
+/**
+ * 编译后的排课问题快照
+ * <p>
+ * 由课程、教师、教室列表一次性构建：字符串ID映射为从0开始的连续下标，
+ * 适应度计算需要的字段预先解析成基本类型数组，排课设置编译为软约束流水线和连排的合法开始节次。构建完成后不再修改，
+ * 可以在同一次排课或同一批多班级排课的多个线程之间只读共享。
+ */
+class ScheduleProblem {
+    // 课程人数无法解析时的默认值
+    static final int DEFAULT_CLASS_SIZE = 30;
+    // 课程没有可解析的优先级
+    static final int NO_PRIORITY = Integer.MAX_VALUE;
+    // 课程未指定教室类型或教室没有类型
+    static final int NO_ROOM_TYPE = -1;
+    // 周次未知的课程按占满所有周处理
+    static final long ALL_WEEKS = -1L;
+    static final int MAX_WEEK = 64;
+
+    private final List<Course> courses;
+    private final List<Teacher> teachers;
+    private final List<Classroom> classrooms;
+
+    private final Map<String, Integer> courseIndex = new HashMap<>();
+    private final Map<String, Integer> teacherIndex = new HashMap<>();
+    private final Map<String, Integer> classroomIndex = new HashMap<>();
+
+    // 课程属性，下标为课程下标
+    final int[] classSize;
+    final int[] priority;
+    final boolean[] physicalEducation;   // 课程性质为体育
+    final int[] requiredRoomType;
+    // 上课周次，第 week-1 位为1表示该周上课；两门课程的掩码按位与为0时可以共用教师、教室和时段
+    final long[] weekMask;
+    // 连排节数，一个基因从开始节次起连续占用这么多节
+    final int[] blockLength;
+    // 合法的开始节次，第 节次-1 位为1表示可以从该节开始
+    final int[] blockStarts;
+
+    // 教室属性，下标为教室下标
+    final int[] roomCapacity;
+    final int[] roomType;
+
+    // 由排课设置编译的软约束
+    final ScheduleConstraints constraints;
+
+    ScheduleProblem(List<Course> courses, List<Teacher> teachers, List<Classroom> classrooms) {
+        this(courses, teachers, classrooms, ScheduleConstraints.DEFAULT);
+    }
+
+    ScheduleProblem(List<Course> courses, List<Teacher> teachers, List<Classroom> classrooms,
+                    ScheduleConstraints constraints) {
+        this.constraints = constraints;
+        // 同一ID只保留第一次出现的记录，与原先按ID查找的结果保持一致
+        List<Course> distinctCourses = new ArrayList<>();
+        for (Course course : courses) {
+            if (!courseIndex.containsKey(course.getId())) {
+                courseIndex.put(course.getId(), distinctCourses.size());
+                distinctCourses.add(course);
+            }
+        }
+        List<Teacher> distinctTeachers = new ArrayList<>();
+        for (Teacher teacher : teachers) {
+            if (!teacherIndex.containsKey(teacher.getId())) {
+                teacherIndex.put(teacher.getId(), distinctTeachers.size());
+                distinctTeachers.add(teacher);
+            }
+        }
+        List<Classroom> distinctClassrooms = new ArrayList<>();
+        for (Classroom classroom : classrooms) {
+            if (!classroomIndex.containsKey(classroom.getId())) {
+                classroomIndex.put(classroom.getId(), distinctClassrooms.size());
+                distinctClassrooms.add(classroom);
+            }
+        }
+        this.courses = Collections.unmodifiableList(distinctCourses);
+        this.teachers = Collections.unmodifiableList(distinctTeachers);
+        this.classrooms = Collections.unmodifiableList(distinctClassrooms);
+
+        // 教室类型和课程要求的教室类型共用一套编号
+        Map<String, Integer> roomTypes = new HashMap<>();
+
+        int roomCount = distinctClassrooms.size();
+        this.roomCapacity = new int[roomCount];
+        this.roomType = new int[roomCount];
+        for (int r = 0; r < roomCount; r++) {
+            Classroom classroom = distinctClassrooms.get(r);
+            roomCapacity[r] = classroom.getCapacity();
+            roomType[r] = typeCode(roomTypes, classroom.getType());
+        }
+
+        int courseCount = distinctCourses.size();
+        this.classSize = new int[courseCount];
+        this.priority = new int[courseCount];
+        this.physicalEducation = new boolean[courseCount];
+        this.requiredRoomType = new int[courseCount];
+        this.weekMask = new long[courseCount];
+        this.blockLength = new int[courseCount];
+        this.blockStarts = new int[courseCount];
+        for (int c = 0; c < courseCount; c++) {
+            Course course = distinctCourses.get(c);
+            classSize[c] = parseClassSize(course.getClassSize());
+            priority[c] = parsePriority(course.getPriority());
+            physicalEducation[c] = "体育".equals(course.getCourseNature());
+            requiredRoomType[c] = typeCode(roomTypes, course.getClassroomType());
+            weekMask[c] = weekRange(course.getBeginWeek(), course.getEndWeek());
+            // 设置中的开始节次放不下整块时降低连排节数，单节课总能放下
+            int length = Math.max(1, Math.min(course.getConsecutiveSections(), ScheduleService.PERIODS_PER_DAY));
+            while (length > 1 && constraints.blockStarts(length) == 0) {
+                length--;
+            }
+            blockLength[c] = length;
+            blockStarts[c] = constraints.blockStarts(length);
+        }
+    }
+
+    /**
+     * 课程从 period 节开始占用的节次位，第 节次-1 位为1；超出当天的部分截掉
+     */
+    int periodMask(int course, int period) {
+        return (((1 << blockLength[course]) - 1) << (period - 1)) & ((1 << ScheduleService.PERIODS_PER_DAY) - 1);
+    }
+
+    boolean isLegalStart(int course, int period) {
+        return (blockStarts[course] >> (period - 1) & 1) != 0;
+    }
+
+    /**
+     * 在 allowedPeriods 中随机挑一个合法的开始节次，没有交集时在全部合法节次中挑
+     *
+     * @param allowedPeriods 节次位掩码
+     */
+    int randomStart(int course, int allowedPeriods, SplittableRandom random) {
+        int starts = blockStarts[course] & allowedPeriods;
+        if (starts == 0) {
+            starts = blockStarts[course];
+        }
+        return nthBit(starts, random.nextInt(Integer.bitCount(starts))) + 1;
+    }
+
+    /**
+     * 第 n 个为1的位（从0数）
+     */
+    static int nthBit(long bits, int n) {
+        for (int i = 0; i < n; i++) {
+            bits &= bits - 1;
+        }
+        return Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * 第 beginWeek 到 endWeek 周的掩码，周次缺失或不合法时占满所有周
+     */
+    static long weekRange(int beginWeek, int endWeek) {
+        if (beginWeek < 1 || endWeek < beginWeek || beginWeek > MAX_WEEK) {
+            return ALL_WEEKS;
+        }
+        int end = Math.min(endWeek, MAX_WEEK);
+        long upTo = end == MAX_WEEK ? ALL_WEEKS : (1L << end) - 1;
+        return upTo & ~((1L << (beginWeek - 1)) - 1);
+    }
+
+    private static int parseClassSize(String classSize) {
+        try {
+            return Integer.parseInt(classSize);
+        } catch (NumberFormatException e) {
+            return DEFAULT_CLASS_SIZE;
+        }
+    }
+
+    private static int parsePriority(String priority) {
+        if (priority == null || priority.isEmpty()) {
+            return NO_PRIORITY;
+        }
+        try {
+            return Integer.parseInt(priority);
+        } catch (NumberFormatException e) {
+            return NO_PRIORITY;
+        }
+    }
+
+    private static int typeCode(Map<String, Integer> types, String type) {
+        if (type == null || type.trim().isEmpty()) {
+            return NO_ROOM_TYPE;
+        }
+        return types.computeIfAbsent(type.trim(), k -> types.size());
+    }
+
+    int courseCount() {
+        return courses.size();
+    }
+
+    int teacherCount() {
+        return teachers.size();
+    }
+
+    int classroomCount() {
+        return classrooms.size();
+    }
+
+    Course course(int index) {
+        return courses.get(index);
+    }
+
+    Teacher teacher(int index) {
+        return teachers.get(index);
+    }
+
+    Classroom classroom(int index) {
+        return classrooms.get(index);
+    }
+
+    List<Course> courses() {
+        return courses;
+    }
+
+    List<Teacher> teachers() {
+        return teachers;
+    }
+
+    List<Classroom> classrooms() {
+        return classrooms;
+    }
+
+    /**
+     * @return 课程下标，不存在时返回-1
+     */
+    int indexOfCourse(String courseId) {
+        Integer index = courseIndex.get(courseId);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @return 教师下标，不存在时返回-1
+     */
+    int indexOfTeacher(String teacherId) {
+        Integer index = teacherIndex.get(teacherId);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @return 教室下标，不存在时返回-1
+     */
+    int indexOfClassroom(String classroomId) {
+        Integer index = classroomIndex.get(classroomId);
+        return index != null ? index : -1;
+    }
+}
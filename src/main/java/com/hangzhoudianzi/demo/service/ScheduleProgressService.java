@@ -0,0 +1,165 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.config.ScheduleProperties;
+import com.hangzhoudianzi.demo.pojo.dto.ScheduleProgressDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 排课进度推送（Server-Sent Events）
+ * <p>
+ * 每个订阅者有自己的有界缓冲区，排课线程只往缓冲区里写；
+ * 定时线程按固定间隔把推送交给有界的发送线程池，发送线程把缓冲区里的事件推送给客户端，
+ * 任务结束后推送最终状态并关闭连接。
+ * <p>
+ * SseEmitter.send 是阻塞写，每个订阅者同一时间最多有一次推送在进行，上一次没写完时跳过本轮，
+ * 事件留在缓冲区里（满了丢弃最旧的）；卡住的客户端最多占用一个发送线程，不影响定时线程和其他订阅者。
+ */
+@Service
+public class ScheduleProgressService {
+    @Autowired
+    private ScheduleJobService scheduleJobService;
+    @Autowired
+    private ScheduleProperties scheduleProperties;
+
+    // 只负责定时检查，不做阻塞写
+    private ScheduledExecutorService ticker;
+    private ExecutorService sender;
+
+    @PostConstruct
+    public void initSender() {
+        ticker = Executors.newSingleThreadScheduledExecutor();
+        // 不排队：线程都在忙时本轮跳过，下一轮再试
+        sender = new ThreadPoolExecutor(0, Math.max(1, scheduleProperties.getProgress().getSenderThreads()),
+                60, TimeUnit.SECONDS, new SynchronousQueue<>());
+    }
+
+    @PreDestroy
+    public void shutdownSender() {
+        ticker.shutdownNow();
+        sender.shutdownNow();
+    }
+
+    /**
+     * 订阅任务进度
+     *
+     * @return SSE连接，任务不存在或已过期时返回null
+     */
+    public SseEmitter subscribe(String jobId) {
+        ScheduleJob job = scheduleJobService.getJob(jobId);
+        if (job == null) {
+            return null;
+        }
+        ScheduleProperties.Progress settings = scheduleProperties.getProgress();
+        SseEmitter emitter = new SseEmitter(Math.max(1, settings.getEmitterTimeoutMillis()));
+        ProgressBuffer buffer = new ProgressBuffer(settings.getBufferSize());
+        // 先推送一次当前状态，订阅时任务可能已经在运行甚至已经结束
+        buffer.offer(job.progress());
+        job.subscribe(buffer);
+
+        Subscription subscription = new Subscription(job, buffer, emitter, sender);
+        subscription.future = ticker.scheduleWithFixedDelay(subscription, 0,
+                Math.max(1, settings.getMinIntervalMillis()), TimeUnit.MILLISECONDS);
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(() -> {
+            subscription.close();
+            emitter.complete();
+        });
+        emitter.onError(e -> subscription.close());
+        return emitter;
+    }
+
+    private static class Subscription implements Runnable {
+        private final ScheduleJob job;
+        private final ProgressBuffer buffer;
+        private final SseEmitter emitter;
+        private final ExecutorService sender;
+        // 是否有推送在进行
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private volatile ScheduledFuture<?> future;
+        private boolean finalEventSent;
+
+        Subscription(ScheduleJob job, ProgressBuffer buffer, SseEmitter emitter, ExecutorService sender) {
+            this.job = job;
+            this.buffer = buffer;
+            this.emitter = emitter;
+            this.sender = sender;
+        }
+
+        @Override
+        public void run() {
+            if (!sending.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                sender.execute(this::push);
+            } catch (RejectedExecutionException e) {
+                sending.set(false);
+            }
+        }
+
+        private void push() {
+            try {
+                drainAndSend();
+            } finally {
+                sending.set(false);
+            }
+        }
+
+        private void drainAndSend() {
+            // 先读结束标记再取事件，保证结束前写入的事件都已取出
+            boolean finished = job.isFinished();
+            List<ScheduleProgressDTO> events = new ArrayList<>();
+            buffer.drainTo(events);
+            try {
+                for (ScheduleProgressDTO event : events) {
+                    send(event);
+                }
+                if (finished) {
+                    // 结束事件可能在发送线程读到结束标记之后才写入缓冲区，这里补发一次最终状态
+                    if (!finalEventSent) {
+                        send(job.progress());
+                    }
+                    emitter.complete();
+                    close();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // 客户端已断开
+                close();
+            }
+        }
+
+        private void send(ScheduleProgressDTO event) throws IOException {
+            emitter.send(SseEmitter.event().name("progress").data(event));
+            finalEventSent = !ScheduleJob.Status.PENDING.name().equals(event.getStatus())
+                    && !ScheduleJob.Status.RUNNING.name().equals(event.getStatus());
+        }
+
+        void close() {
+            job.unsubscribe(buffer);
+            ScheduledFuture<?> f = future;
+            if (f != null) {
+                f.cancel(false);
+            }
+            if (buffer.droppedCount() > 0) {
+                System.out.println("排课任务 " + job.getId() + " 的进度推送丢弃了 " + buffer.droppedCount() + " 个事件");
+            }
+        }
+    }
+}
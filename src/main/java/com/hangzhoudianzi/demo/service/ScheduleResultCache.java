@@ -0,0 +1,86 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.config.ScheduleProperties;
+import com.hangzhoudianzi.demo.pojo.resource.Timetable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * 排课结果缓存
+ * <p>
+ * 以排课输入的指纹为键保存已完成的排课结果，相同的输入再次排课时直接返回。
+ * 条目数超过上限时淘汰最久未使用的条目，超过保留时间的条目在访问时清理。
+ * 存入和取出时都复制课表记录，调用方修改返回的记录不会影响缓存。
+ */
+@Service
+public class ScheduleResultCache {
+    @Autowired
+    private ScheduleProperties scheduleProperties;
+
+    private static class Entry {
+        final Map<Integer, List<Timetable>> result;
+        final long createdAt = System.currentTimeMillis();
+
+        Entry(Map<Integer, List<Timetable>> result) {
+            this.result = result;
+        }
+    }
+
+    // 按访问顺序排列，最久未使用的在前
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public boolean isEnabled() {
+        return scheduleProperties.getCache().isEnabled() && scheduleProperties.getCache().getMaxEntries() > 0;
+    }
+
+    /**
+     * @return 缓存的排课结果的副本，未命中或已过期时返回null
+     */
+    public synchronized Map<Integer, List<Timetable>> get(String fingerprint) {
+        evictExpired();
+        Entry entry = entries.get(fingerprint);
+        return entry != null ? copy(entry.result) : null;
+    }
+
+    public synchronized void put(String fingerprint, Map<Integer, List<Timetable>> result) {
+        evictExpired();
+        entries.put(fingerprint, new Entry(copy(result)));
+        int maxEntries = scheduleProperties.getCache().getMaxEntries();
+        Iterator<String> eldest = entries.keySet().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    public synchronized int size() {
+        evictExpired();
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private void evictExpired() {
+        long ttlMillis = scheduleProperties.getCache().getTtlMinutes() * 60_000L;
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> now - entry.createdAt >= ttlMillis);
+    }
+
+    private static Map<Integer, List<Timetable>> copy(Map<Integer, List<Timetable>> result) {
+        Map<Integer, List<Timetable>> copy = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<Timetable>> entry : result.entrySet()) {
+            List<Timetable> timetables = new ArrayList<>(entry.getValue().size());
+            for (Timetable t : entry.getValue()) {
+                timetables.add(new Timetable(t.getId(), t.getClassId(), t.getCourseId(), t.getTeacherId(),
+                        t.getClassroomId(), t.getScheduleTime() != null ? new Date(t.getScheduleTime().getTime()) : null,
+                        t.getPeriodInfo(), t.getDayOfWeek()));
+            }
+            copy.put(entry.getKey(), timetables);
+        }
+        return copy;
+    }
+}
@@ -1,5 +1,6 @@
 package com.hangzhoudianzi.demo.service;
 
+import com.hangzhoudianzi.demo.config.ScheduleProperties;
 import com.hangzhoudianzi.demo.mapper.ClassroomMapper;
 import com.hangzhoudianzi.demo.mapper.CourseMapper;
 import com.hangzhoudianzi.demo.mapper.TeacherMapper;
@@ -10,10 +11,16 @@ import com.hangzhoudianzi.demo.pojo.resource.Classroom;
 import com.hangzhoudianzi.demo.pojo.resource.Timetable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
@@ -34,7 +41,37 @@ public class ScheduleService {
     private TeacherService teacherService;
     @Autowired
     private CourseService courseService;
+    @Autowired
+    private ScheduleProperties scheduleProperties;
+    @Autowired
+    private ScheduleSettingsService scheduleSettingsService;
+    @Autowired
+    private ScheduleResultCache scheduleResultCache;
+    @Autowired
+    private ScheduleMetrics scheduleMetrics;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private TimetableVersionCollector timetableVersionCollector;
+
+    // 并行繁殖子代的线程池，未开启并行时为null
+    private ForkJoinPool breedingPool;
+
+    @PostConstruct
+    public void initBreedingPool() {
+        int parallelism = scheduleProperties.getGa().getParallelism();
+        if (parallelism > 1) {
+            breedingPool = new ForkJoinPool(parallelism);
+            System.out.println("遗传算法并行繁殖已开启，线程数: " + parallelism);
+        }
+    }
 
+    @PreDestroy
+    public void shutdownBreedingPool() {
+        if (breedingPool != null) {
+            breedingPool.shutdown();
+        }
+    }
 
     // 遗传算法参数
     private static final int POPULATION_SIZE = 30;       // 从50减少到30
@@ -43,40 +80,102 @@ public class ScheduleService {
     private static final double MUTATION_RATE = 0.2;     // 从0.1增加到0.2提高变异率加快收敛
     private static final int TOURNAMENT_SIZE = 3;        // 从5减少到3
     private static final int ELITE_COUNT = 2;            // 从5减少到2
+    // 截止时间模式：按评估速度调整种群大小，使预算内大约能进化这么多代
+    private static final int ANYTIME_TARGET_GENERATIONS = 100;
+    private static final int MAX_POPULATION_SIZE = 1000;
+    // 截止时间模式下配置了局部搜索时，留给局部搜索的预算比例
+    private static final double ANYTIME_POLISH_SHARE = 0.2;
 
     // 排课约束参数
-    private static final int DAYS = 5;                   // 教学天数（一周）
-    private static final int PERIODS_PER_DAY = 8;        // 每天节次数
+    static final int DAYS = 5;                   // 教学天数（一周）
+    static final int PERIODS_PER_DAY = 8;        // 每天节次数
+    private static final int MORNING_PERIODS = 0x0F;     // 1-4节为上午，节次位掩码
     private static final int MAX_WEEKLY_RECORDS = 15;    // 每周最大排课记录数，增加到50节
     private static final int MAX_COURSES_PER_TEACHER = 3; // 每位教师最多教5门不同课程
     private static final int MAX_SAME_COURSE_PER_TEACHER = 2; // 每位教师同一门课程最多上2次
     
     /**
      * 染色体类，表示一个完整的排课方案
+     * <p>
+     * 基因按列存储为int数组，第i个基因为
+     * [课程下标, 教师下标, 教室下标, 星期几, 第几节课, 班级下标]，
+     * 下标含义见 {@link ScheduleIndex}
      */
-    class Chromosome {
-        // 基因序列，每个元素代表一个课程的安排
-        // [课程ID, 教师ID, 教室ID, 星期几, 第几节课, 班级ID]
-        List<Object[]> genes;
+    static class Chromosome {
+        int[] courses;
+        int[] teachers;
+        int[] rooms;
+        int[] days;
+        int[] periods;
+        int[] classes;
         double fitness;
-        
-        public Chromosome() {
-            this.genes = new ArrayList<>();
-            this.fitness = 0.0;
-        }
-        
-        public Chromosome(List<Object[]> genes) {
-            this.genes = genes;
+        // 增量适应度状态，为null时在下次评估时全量构建
+        IncrementalFitness fitnessState;
+
+        public Chromosome(int geneCount) {
+            this.courses = new int[geneCount];
+            this.teachers = new int[geneCount];
+            this.rooms = new int[geneCount];
+            this.days = new int[geneCount];
+            this.periods = new int[geneCount];
+            this.classes = new int[geneCount];
             this.fitness = 0.0;
         }
-        
+
         // 深拷贝构造函数
         public Chromosome(Chromosome other) {
-            this.genes = new ArrayList<>();
-            for (Object[] gene : other.genes) {
-                this.genes.add(gene.clone());
-            }
+            this.courses = other.courses.clone();
+            this.teachers = other.teachers.clone();
+            this.rooms = other.rooms.clone();
+            this.days = other.days.clone();
+            this.periods = other.periods.clone();
+            this.classes = other.classes.clone();
             this.fitness = other.fitness;
+            this.fitnessState = other.fitnessState != null ? other.fitnessState.copyFor(this) : null;
+        }
+
+        int size() {
+            return courses.length;
+        }
+
+        void setGene(int i, int course, int teacher, int room, int day, int period, int classIndex) {
+            courses[i] = course;
+            teachers[i] = teacher;
+            rooms[i] = room;
+            days[i] = day;
+            periods[i] = period;
+            classes[i] = classIndex;
+        }
+
+        /**
+         * 调整基因的时间，已有增量状态时同步更新罚分
+         */
+        void moveGene(int i, int day, int period) {
+            if (fitnessState != null) {
+                fitnessState.moveGene(i, day, period);
+            } else {
+                days[i] = day;
+                periods[i] = period;
+            }
+        }
+
+        /**
+         * 替换基因的课程，课程变化会影响重复课程的判断，增量状态作废
+         */
+        void changeCourse(int i, int course) {
+            courses[i] = course;
+            fitnessState = null;
+        }
+
+        /**
+         * 调整基因的教室，已有增量状态时同步更新罚分
+         */
+        void changeRoom(int i, int room) {
+            if (fitnessState != null) {
+                fitnessState.changeRoom(i, room);
+            } else {
+                rooms[i] = room;
+            }
         }
     }
 
@@ -89,92 +188,493 @@ public class ScheduleService {
      * 3. 进行选择、交叉、变异操作，产生新一代种群
      * 4. 重复步骤2-3直到满足终止条件
      * 5. 选取最佳排课方案并保存
+     * <p>
+     * 同步执行，排课完成后直接保存；需要异步执行时通过 {@link ScheduleJobService} 提交任务
      */
     public void autoSchedule(Integer classId) {
-        System.out.println("======== 开始为" + classId + "班级排课 ========");
+        autoSchedule(classId, null);
+    }
+
+    /**
+     * 自动排课，指定随机种子
+     *
+     * @param seed 随机种子，相同的数据和种子得到相同的课表；为null时随机生成并打印出来，便于复现
+     */
+    public void autoSchedule(Integer classId, Long seed) {
+        autoSchedule(classId, seed, ScheduleJob.Engine.GA);
+    }
+
+    /**
+     * 自动排课，指定随机种子和排课引擎
+     *
+     * @param engine 为CSP时先用约束传播搜索无冲突课表，找不到时改用遗传算法
+     */
+    public void autoSchedule(Integer classId, Long seed, ScheduleJob.Engine engine) {
+        autoSchedule(ScheduleJob.singleClass(classId, seed, true).withEngine(engine));
+    }
+
+    /**
+     * 按任务参数同步排课并保存
+     *
+     * @return 传入的任务，其中记录了进化的代数、评估次数和种群大小
+     */
+    public ScheduleJob autoSchedule(ScheduleJob job) {
+        saveSchedule(solve(job));
+        return job;
+    }
+
+    /**
+     * 按任务参数排课，只返回结果，不写数据库
+     * <p>
+     * 进化过程中把当前代数和最佳适应度写入任务，并在代与代之间检查任务是否被取消，
+     * 取消后返回已经得到的结果
+     * <p>
+     * 指定了随机种子时，输入与之前某次排课完全相同则直接返回缓存的结果，见 {@link #fingerprint}
+     *
+     * @return 班级ID -> 课表记录，没有得到排课方案的班级不在结果中
+     */
+    public Map<Integer, List<Timetable>> solve(ScheduleJob job) {
+        int[] classIds = job.getClassIds();
+        if (classIds.length > 1) {
+            System.out.println("======== 开始为" + classIds.length + "个班级排课 ========");
+        }
+        
+        // 有时间预算时从这里开始计时
+        job.startClock();
+        
+        // 预加载所有数据并编译一次，各班级的排课线程只读共享
+        long loadStart = System.nanoTime();
+        ScheduleProblem problem = loadProblem();
+        if (problem == null) {
+            return Collections.emptyMap();
+        }
         
-        // 获取数据
+        String fingerprint = null;
+        if (scheduleResultCache.isEnabled() && job.getSeed() != null) {
+            fingerprint = fingerprint(job, problem);
+            Map<Integer, List<Timetable>> cached = scheduleResultCache.get(fingerprint);
+            if (cached != null) {
+                System.out.println("排课输入未变化，使用缓存的排课结果");
+                job.markCacheHit();
+                scheduleMetrics.recordCacheHit();
+                return cached;
+            }
+        }
+        scheduleMetrics.recordLoad(System.nanoTime() - loadStart);
+        
+        long evolveStart = System.nanoTime();
+        Map<Integer, List<Timetable>> result = solve(job, classIds, problem, newRandom(job.getSeed()));
+        scheduleMetrics.recordSolve(job, System.nanoTime() - evolveStart);
+        if (fingerprint != null && !job.isCancelRequested() && !result.isEmpty()) {
+            scheduleResultCache.put(fingerprint, result);
+        }
+        return result;
+    }
+
+    private Map<Integer, List<Timetable>> solve(ScheduleJob job, int[] classIds, ScheduleProblem problem,
+                                               SplittableRandom random) {
+        if (job.isJoint()) {
+            return scheduleJoint(classIds, problem, random, job);
+        }
+        if (classIds.length > 1) {
+            return scheduleClassesInParallel(classIds, problem, random, job);
+        }
+        Map<Integer, List<Timetable>> result = new LinkedHashMap<>();
+        List<Timetable> timetables = scheduleClass(classIds[0], problem, random, job);
+        if (timetables != null) {
+            result.put(classIds[0], timetables);
+        }
+        return result;
+    }
+
+    /**
+     * 排课输入的指纹：排课参数、算法配置、当前排课设置、课程、教师、教室，以及排课时会读取的现有课表。
+     * 独立排课的遗传算法只读取本班级的课表，联合排课和约束传播还会读取其他班级的课表
+     */
+    private String fingerprint(ScheduleJob job, ScheduleProblem problem) {
+        ScheduleFingerprint fingerprint = new ScheduleFingerprint()
+                .add("classIds", Arrays.toString(job.getClassIds()))
+                .add("joint", job.isJoint())
+                .add("engine", job.getEngine())
+                .add("seed", job.getSeed())
+                .add("timeBudgetMillis", job.getTimeBudgetMillis())
+                .add("ga", scheduleProperties.getGa())
+                .add("island", scheduleProperties.getIsland())
+                .add("localSearch", scheduleProperties.getLocalSearch())
+                .add("csp", scheduleProperties.getCsp())
+                .add("constraints", scheduleProperties.getConstraints())
+                .add("settings", scheduleSettingsService.getActiveSettings());
+        
+        List<Object> courses = new ArrayList<>(problem.courseCount());
+        for (int i = 0; i < problem.courseCount(); i++) {
+            courses.add(problem.course(i));
+        }
+        List<Object> teachers = new ArrayList<>(problem.teacherCount());
+        for (int i = 0; i < problem.teacherCount(); i++) {
+            teachers.add(problem.teacher(i));
+        }
+        List<Object> classrooms = new ArrayList<>(problem.classroomCount());
+        for (int i = 0; i < problem.classroomCount(); i++) {
+            classrooms.add(problem.classroom(i));
+        }
+        fingerprint.addAll("courses", courses)
+                .addAll("teachers", teachers)
+                .addAll("classrooms", classrooms);
+        
+        if (job.isJoint() || job.getEngine() == ScheduleJob.Engine.CSP) {
+            fingerprint.addAll("timetables", timetableMapper.getAllTimetables());
+        } else {
+            for (int classId : job.getClassIds()) {
+                fingerprint.addAll("timetables" + classId, timetableMapper.getTimetablesByClassId(classId));
+            }
+        }
+        return fingerprint.value();
+    }
+
+    /**
+     * 创建一次排课的根随机流，本次排课中所有线程使用的随机流都从它拆分
+     */
+    private static SplittableRandom newRandom(Long seed) {
+        long actualSeed = seed != null ? seed : new SplittableRandom().nextLong();
+        System.out.println("随机种子: " + actualSeed);
+        return new SplittableRandom(actualSeed);
+    }
+
+    /**
+     * 加载课程、教师、教室数据并编译为排课问题快照
+     *
+     * @return 排课问题快照，缺少排课所需数据时返回null
+     */
+    private ScheduleProblem loadProblem() {
         List<Course> courses = courseService.list();
         List<Teacher> teachers = teacherService.list();
         List<Classroom> classrooms = classroomService.list();
 
         if (courses.isEmpty() || teachers.isEmpty() || classrooms.isEmpty()) {
             System.out.println("错误：缺少排课所需数据，无法进行自动排课");
-            return;
+            return null;
         }
+        ScheduleConstraints constraints = ScheduleConstraints.compile(scheduleSettingsService.getActiveSettings(),
+                scheduleProperties.getConstraints().getWeights());
+        System.out.println("软约束: " + constraints);
+        return new ScheduleProblem(courses, teachers, classrooms, constraints);
+    }
+
+    /**
+     * 增量排课：保留班级现有课表，只为新增或变化的课程安排时间和教室
+     * <p>
+     * 现有记录中课程未变化且仍能识别的固定为基因，进化和局部搜索都不改动；
+     * 保存时去掉作废的旧记录、加上待排课程的新记录，其他记录原样带入新版本
+     *
+     * @param changedCourseIds 新增或变化的课程ID，例如新开的课程或换了教师的课程
+     * @param seed 随机种子，为null时随机生成
+     * @return 重新安排的课程数
+     */
+    public int reschedule(Integer classId, Collection<String> changedCourseIds, Long seed,
+                          ScheduleJob.Engine engine) {
+        System.out.println("======== 开始为" + classId + "班级增量排课 ========");
+        long loadStart = System.nanoTime();
+        ScheduleProblem problem = loadProblem();
+        if (problem == null) {
+            return 0;
+        }
+        SplittableRandom random = newRandom(seed);
+        
+        // 版本号和现有记录在同一个事务中读取，保存时以读到的版本为基准
+        long[] baseVersion = new long[1];
+        List<Timetable> existingTimetables = transactionTemplate.execute(status -> {
+            Long version = timetableMapper.getVersion(classId);
+            baseVersion[0] = version != null ? version : 0L;
+            return timetableMapper.getTimetablesByClassId(classId);
+        });
+        int[] preferredTeachers = new TeacherAssignments(problem, existingTimetables).bestTeachers();
+        WarmStart warmStart = WarmStart.fromTimetables(problem, existingTimetables, changedCourseIds,
+                preferredTeachers, random);
+        if (warmStart.freeGenes.length == 0) {
+            System.out.println("没有需要重新安排的课程");
+            return 0;
+        }
+        System.out.println("固定 " + (warmStart.template.size() - warmStart.freeGenes.length) + " 条现有记录，" +
+                           "重新安排 " + warmStart.freeGenes.length + " 门课程");
+        
+        ScheduleIndex index = new ScheduleIndex(problem, warmStart, classId);
+        ScheduleJob job = ScheduleJob.singleClass(classId, seed, true).withEngine(engine);
+        scheduleMetrics.recordLoad(System.nanoTime() - loadStart);
+        long evolveStart = System.nanoTime();
+        Chromosome bestChromosome = search(index, new int[][]{preferredTeachers}, random, breedingPool, job);
+        scheduleMetrics.recordSolve(job, System.nanoTime() - evolveStart);
+        if (bestChromosome == null) {
+            System.out.println("未能找到有效的排课方案");
+            return 0;
+        }
+        System.out.println("增量排课完成，最终适应度: " + bestChromosome.fitness);
+        
+        List<Timetable> changedTimetables = new ArrayList<>(warmStart.freeGenes.length);
+        for (int i : warmStart.freeGenes) {
+            changedTimetables.add(toTimetable(bestChromosome, index, i, classId));
+        }
+        saveChanges(classId, baseVersion[0], warmStart.staleRows, changedTimetables);
+        System.out.println("======== 增量排课结束 ========");
+        return changedTimetables.size();
+    }
+
+    /**
+     * 使用已编译的排课问题为一个班级排课，问题快照只读，可被多个班级的排课线程共享
+     *
+     * @param random 本次排课的随机流，只在当前线程使用，各岛屿和每对子代的随机流都从这里拆分
+     * @return 课表记录，未能找到排课方案时返回null
+     */
+    private List<Timetable> scheduleClass(int classId, ScheduleProblem problem, SplittableRandom random,
+                                          ScheduleJob job) {
+        System.out.println("======== 开始为" + classId + "班级排课 ========");
+
+        // 本次排课的下标视图，进化过程中只操作下标
+        ScheduleIndex index = new ScheduleIndex(problem, classId);
         
         // 不再限制课程数量，让所有课程都有机会被安排
-        System.out.println("开始排课，处理 " + courses.size() + " 门课程，" + 
-                         teachers.size() + " 名教师，" + 
-                         classrooms.size() + " 间教室");
+        System.out.println("开始排课，处理 " + problem.courseCount() + " 门课程，" + 
+                         problem.teacherCount() + " 名教师，" + 
+                         problem.classroomCount() + " 间教室");
+        
+        // 根据班级现有课表为每门课程挑选教师，只查询一次数据库
+        List<Timetable> existingTimetables = timetableMapper.getTimetablesByClassId(classId);
+        int[][] preferredTeachers = {new TeacherAssignments(problem, existingTimetables).bestTeachers()};
+        
+        Chromosome bestChromosome = search(index, preferredTeachers, random, breedingPool, job);
+        
+        List<Timetable> timetables = null;
+        if (bestChromosome != null) {
+            // 评估最终方案
+            double finalFitness = bestChromosome.fitness;
+            System.out.println("排课算法完成，最终适应度: " + finalFitness);
+            
+            if (finalFitness < 0.5) {
+                System.out.println("警告: 最终课表冲突较多，可能不够合理，建议手动调整");
+            }
+            
+            timetables = buildTimetables(bestChromosome, index, classId);
+        } else {
+            System.out.println("未能找到有效的排课方案");
+        }
         
+        System.out.println("======== 自动排课结束 ========");
+        return timetables;
+    }
+
+    /**
+     * 按任务指定的引擎求解：约束传播找到无冲突课表时直接使用，否则运行遗传算法和局部搜索
+     */
+    private Chromosome search(ScheduleIndex index, int[][] preferredTeachers, SplittableRandom random,
+                              ForkJoinPool pool, ScheduleJob job) {
+        Chromosome best = null;
+        if (job.getEngine() == ScheduleJob.Engine.CSP) {
+            best = solveWithConstraints(index, preferredTeachers, random, job);
+            if (best == null && !job.isCancelRequested()) {
+                System.out.println("约束传播未找到无冲突的课表，改用遗传算法");
+            }
+        }
+        if (best == null && !job.isCancelRequested()) {
+            best = polish(evolve(index, preferredTeachers, random, pool, job), index, random, job);
+        }
+        if (best != null) {
+            job.recordSearchResult(best.fitness);
+        }
+        return best;
+    }
+
+    /**
+     * 约束传播求解，其他班级现有课表中的教师和教室时段视为已占用
+     *
+     * @return 无冲突的染色体，时间预算内未找到时返回null
+     */
+    private Chromosome solveWithConstraints(ScheduleIndex index, int[][] preferredTeachers, SplittableRandom random,
+                                            ScheduleJob job) {
+        ScheduleProperties.Csp settings = scheduleProperties.getCsp();
+        Set<Integer> scheduledClasses = new HashSet<>();
+        for (int classId : job.getClassIds()) {
+            scheduledClasses.add(classId);
+        }
+        List<Timetable> fixedTimetables = timetableMapper.getAllTimetables().stream()
+                .filter(t -> t.getClassId() == null || !scheduledClasses.contains(t.getClassId()))
+                .collect(Collectors.toList());
+        
+        long startTime = System.currentTimeMillis();
+        ConstraintSolver solver = new ConstraintSolver(index, preferredTeachers, fixedTimetables, random.split());
+        if (solver.relaxedVariables() > 0) {
+            System.out.println("警告: " + solver.relaxedVariables() + " 门课程没有容量和类型都合适的教室，允许使用任意教室");
+        }
+        long timeBudget = settings.getTimeBudgetMillis();
+        if (job.hasDeadline()) {
+            timeBudget = Math.min(timeBudget, Math.max(0, job.remainingNanos() / 1_000_000L));
+        }
+        Chromosome solved = solver.solve(timeBudget, settings.getFailLimit(), job);
+        System.out.println("约束传播" + (solved != null ? "完成" : "未找到解") + "，搜索 " + solver.nodes() +
+                           " 个节点，重启 " + solver.restarts() + " 次，用时 " +
+                           (System.currentTimeMillis() - startTime) + " 毫秒");
+        job.recordEvaluations(solver.nodes());
+        if (solved != null) {
+            solved.fitnessState = new IncrementalFitness(index, solved);
+            solved.fitness = solved.fitnessState.fitness();
+            job.reportGeneration(0, solved.fitness, solved.fitness);
+        }
+        return solved;
+    }
+
+    /**
+     * 配置了多个岛屿时使用岛屿模型，否则进化单个种群
+     *
+     * @param preferredTeachers 下标为班级下标，每个班级中每门课程最合适的教师下标
+     * @param pool 并行繁殖子代的线程池，为null时在当前线程繁殖
+     * @param job 记录进度，并在代与代之间检查是否被取消
+     */
+    private Chromosome evolve(ScheduleIndex index, int[][] preferredTeachers, SplittableRandom random,
+                              ForkJoinPool pool, ScheduleJob job) {
+        long deadline = evolutionDeadline(job);
+        return scheduleProperties.getIsland().getCount() > 1
+                ? evolveIslands(index, preferredTeachers, random, pool, job, deadline)
+                : evolvePopulation(index, preferredTeachers, random, pool, job, deadline);
+    }
+
+    /**
+     * 遗传算法的截止时间（System.nanoTime），没有时间预算时为0。
+     * 配置了局部搜索时留出一部分剩余时间给局部搜索
+     */
+    private long evolutionDeadline(ScheduleJob job) {
+        if (!job.hasDeadline()) {
+            return 0;
+        }
+        long remaining = Math.max(0, job.remainingNanos());
+        if (scheduleProperties.getLocalSearch().getMethod() != ScheduleProperties.LocalSearch.Method.NONE) {
+            remaining -= (long) (remaining * ANYTIME_POLISH_SHARE);
+        }
+        return System.nanoTime() + remaining;
+    }
+
+    /**
+     * 截止时间前是否已到时间
+     */
+    private static boolean deadlinePassed(long deadline) {
+        return deadline != 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * 截止时间模式下的种群大小：按单个染色体的评估耗时，使到截止时间大约能进化 ANYTIME_TARGET_GENERATIONS 代。
+     * 时间越充裕种群越大，但不小于默认种群大小
+     *
+     * @param evaluationNanos 生成并评估一个染色体的平均耗时
+     * @param parallelism 并行繁殖的线程数
+     */
+    static int adaptivePopulationSize(long evaluationNanos, long remainingNanos, int parallelism) {
+        if (remainingNanos <= 0) {
+            return POPULATION_SIZE;
+        }
+        double perGeneration = (double) remainingNanos / ANYTIME_TARGET_GENERATIONS;
+        double size = perGeneration * Math.max(1, parallelism) / Math.max(1, evaluationNanos);
+        return (int) Math.max(POPULATION_SIZE, Math.min(MAX_POPULATION_SIZE, size));
+    }
+
+    /**
+     * 初始化并评估种群；有截止时间时先按默认大小初始化测出评估速度，再补足到合适的大小
+     */
+    private List<Chromosome> initialEvaluatedPopulation(ScheduleIndex index, int[][] preferredTeachers,
+                                                        SplittableRandom random, int parallelism,
+                                                        ScheduleJob job, long deadline) {
+        long startTime = System.nanoTime();
+        List<Chromosome> population = initializePopulation(index, preferredTeachers, random, POPULATION_SIZE);
+        evaluatePopulation(population, index);
+        job.recordEvaluations(population.size());
+        
+        if (deadline != 0) {
+            long evaluationNanos = (System.nanoTime() - startTime) / population.size();
+            int size = adaptivePopulationSize(evaluationNanos, deadline - System.nanoTime(), parallelism);
+            if (size > population.size()) {
+                List<Chromosome> extra = initializePopulation(index, preferredTeachers, random,
+                        size - population.size());
+                evaluatePopulation(extra, index);
+                job.recordEvaluations(extra.size());
+                population.addAll(extra);
+            }
+        }
+        job.recordPopulationSize(population.size());
+        return population;
+    }
+
+    /**
+     * 配置了局部搜索时，在遗传算法得到的最佳染色体上继续消除剩余冲突
+     */
+    private Chromosome polish(Chromosome best, ScheduleIndex index, SplittableRandom random, ScheduleJob job) {
+        ScheduleProperties.LocalSearch settings = scheduleProperties.getLocalSearch();
+        if (best == null || settings.getMethod() == ScheduleProperties.LocalSearch.Method.NONE
+                || job.isCancelRequested()) {
+            return best;
+        }
+        
+        long startTime = System.currentTimeMillis();
+        double before = best.fitness;
+        LocalSearch localSearch = new LocalSearch(index, settings, random.split());
+        if (job.hasDeadline()) {
+            // 截止时间模式下局部搜索用到截止时间为止
+            localSearch.setTimeBudgetMillis(Math.max(0, job.remainingNanos() / 1_000_000L));
+        }
+        Chromosome polished = localSearch.run(best, job);
+        System.out.println("局部搜索（" + settings.getMethod() + "）完成，适应度: " + before + " -> " + polished.fitness +
+                           "，尝试 " + localSearch.iterations() + " 次，用时 " +
+                           (System.currentTimeMillis() - startTime) + " 毫秒");
+        job.recordEvaluations(localSearch.iterations());
+        return polished;
+    }
+
+    /**
+     * 单种群进化，返回最佳染色体
+     *
+     * @param deadline 截止时间（System.nanoTime），为0时按固定代数和提前终止条件进化；
+     *                 否则持续进化到截止时间或没有冲突为止
+     */
+    private Chromosome evolvePopulation(ScheduleIndex index, int[][] preferredTeachers,
+                                        SplittableRandom random, ForkJoinPool pool, ScheduleJob job,
+                                        long deadline) {
         // 简化参数，加快收敛速度
-        int limitedGenerations = Math.min(20, MAX_GENERATIONS); // 最多迭代20代
-        double targetFitness = 0.8; // 降低目标适应度阈值
+        int limitedGenerations = deadline != 0 ? Integer.MAX_VALUE : Math.min(20, MAX_GENERATIONS); // 最多迭代20代
         double previousBestFitness = 0.0;
         int noImprovementCount = 0;
         
-        // 初始化种群
-        List<Chromosome> population = initializePopulation(courses, teachers, classrooms, classId);
-        
-        // 评估初始种群适应度
-        evaluatePopulation(population, courses, teachers, classrooms);
+        // 初始化种群并评估适应度
+        int parallelism = pool != null ? pool.getParallelism() : 1;
+        List<Chromosome> population = initialEvaluatedPopulation(index, preferredTeachers, random, parallelism,
+                job, deadline);
         
         // 开始进化
         for (int generation = 0; generation < limitedGenerations; generation++) {
-            // 创建新一代种群
-            List<Chromosome> newPopulation = new ArrayList<>();
+            // 繁殖并评估新一代种群
+            population = breedNextGeneration(population, index, random, pool);
+            job.recordEvaluations(offspringPerGeneration(population.size()));
+            job.recordGenerations(1);
             
-            // 精英保留
-            List<Chromosome> sortedPopulation = population.stream()
-                    .sorted(Comparator.comparingDouble(c -> -c.fitness))
-                    .collect(Collectors.toList());
+            // 获取当前代最佳和平均适应度
+            DoubleSummaryStatistics fitnessStats = population.stream()
+                    .mapToDouble(c -> c.fitness)
+                    .summaryStatistics();
+            double bestFitness = fitnessStats.getCount() > 0 ? fitnessStats.getMax() : 0.0;
             
-            for (int i = 0; i < ELITE_COUNT && i < sortedPopulation.size(); i++) {
-                newPopulation.add(new Chromosome(sortedPopulation.get(i)));
+            if (deadline == 0) {
+                System.out.println("第 " + (generation + 1) + "/" + limitedGenerations + " 代，最佳适应度: " + bestFitness);
             }
+            job.reportGeneration(generation + 1, bestFitness, fitnessStats.getAverage());
             
-            // 生成新个体直到填满新种群
-            while (newPopulation.size() < POPULATION_SIZE) {
-                // 选择父代
-                Chromosome parent1 = tournamentSelection(population);
-                Chromosome parent2 = tournamentSelection(population);
-                
-                // 交叉
-                Chromosome child1 = new Chromosome();
-                Chromosome child2 = new Chromosome();
-                
-                if (Math.random() < CROSSOVER_RATE) {
-                    crossover(parent1, parent2, child1, child2);
-                } else {
-                    child1 = new Chromosome(parent1);
-                    child2 = new Chromosome(parent2);
-                }
-                
-                // 变异
-                mutate(child1, courses, teachers, classrooms);
-                mutate(child2, courses, teachers, classrooms);
-                
-                // 添加到新种群
-                newPopulation.add(child1);
-                if (newPopulation.size() < POPULATION_SIZE) {
-                    newPopulation.add(child2);
-                }
+            if (job.isCancelRequested()) {
+                System.out.println("排课任务已取消，停止进化");
+                break;
             }
             
-            // 评估新种群
-            evaluatePopulation(newPopulation, courses, teachers, classrooms);
-            
-            // 更新种群
-            population = newPopulation;
-            
-            // 获取当前代最佳适应度
-            double bestFitness = population.stream()
-                    .mapToDouble(c -> c.fitness)
-                    .max()
-                    .orElse(0.0);
-            
-            System.out.println("第 " + (generation + 1) + "/" + limitedGenerations + " 代，最佳适应度: " + bestFitness);
+            // 截止时间模式只在到时间或没有冲突时停止
+            if (deadline != 0) {
+                if (deadlinePassed(deadline) || bestFitness >= 1.0) {
+                    System.out.println("截止时间模式：进化 " + (generation + 1) + " 代，种群大小 " +
+                                       population.size() + "，最佳适应度: " + bestFitness);
+                    break;
+                }
+                continue;
+            }
             
             // 检查适应度改善情况
             if (Math.abs(bestFitness - previousBestFitness) < 0.001) {
@@ -196,43 +696,268 @@ public class ScheduleService {
         }
         
         // 选取最佳染色体
-        Chromosome bestChromosome = population.stream()
+        return population.stream()
                 .max(Comparator.comparingDouble(c -> c.fitness))
                 .orElse(null);
+    }
+    
+    /**
+     * 岛屿模型进化，返回所有岛屿中的最佳染色体
+     * <p>
+     * 同时进化多个独立的子种群，每个岛屿在自己的线程上运行。
+     * 每隔若干代所有岛屿同步一次，按环形拓扑迁移：第i个岛屿的最优个体复制到第i+1个岛屿，
+     * 替换那里最差的个体。迁移只在同步点进行，结果只取决于随机流而与线程调度无关。
+     */
+    private Chromosome evolveIslands(ScheduleIndex index, int[][] preferredTeachers,
+                                     SplittableRandom random, ForkJoinPool pool, ScheduleJob job, long deadline) {
+        ScheduleProperties.Island settings = scheduleProperties.getIsland();
+        int islandCount = settings.getCount();
+        int migrationInterval = Math.max(1, settings.getMigrationInterval());
+        int migrants = Math.max(0, Math.min(settings.getMigrants(), POPULATION_SIZE - ELITE_COUNT));
+        int limitedGenerations = deadline != 0 ? Integer.MAX_VALUE : Math.min(20, MAX_GENERATIONS); // 最多迭代20代
+        double previousBestFitness = 0.0;
+        int noImprovementCount = 0;
         
-        if (bestChromosome != null) {
-            // 评估最终方案
-            double finalFitness = bestChromosome.fitness;
-            System.out.println("排课算法完成，最终适应度: " + finalFitness);
-            
-            if (finalFitness < 0.5) {
-                System.out.println("警告: 最终课表冲突较多，可能不够合理，建议手动调整");
+        System.out.println("使用岛屿模型：" + islandCount + " 个岛屿，每 " + migrationInterval +
+                           " 代迁移 " + migrants + " 个个体");
+        
+        // 初始化各岛屿种群，每个岛屿使用独立的随机流
+        List<List<Chromosome>> islands = new ArrayList<>(islandCount);
+        SplittableRandom[] streams = new SplittableRandom[islandCount];
+        for (int i = 0; i < islandCount; i++) {
+            streams[i] = random.split();
+            // 各岛屿在自己的线程上进化，按单线程的评估速度决定种群大小
+            islands.add(initialEvaluatedPopulation(index, preferredTeachers, streams[i], 1, job, deadline));
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(islandCount);
+        try {
+            int generation = 0;
+            while (generation < limitedGenerations) {
+                int epochGenerations = Math.min(migrationInterval, limitedGenerations - generation);
+                
+                // 各岛屿独立进化到下一个同步点，截止时间到了提前结束本轮
+                int[] completed = new int[islandCount];
+                List<Future<List<Chromosome>>> futures = new ArrayList<>(islandCount);
+                for (int i = 0; i < islandCount; i++) {
+                    final int islandIndex = i;
+                    final List<Chromosome> island = islands.get(i);
+                    final SplittableRandom stream = streams[i];
+                    futures.add(executor.submit(() -> {
+                        List<Chromosome> population = island;
+                        for (int g = 0; g < epochGenerations && !job.isCancelRequested(); g++) {
+                            population = breedNextGeneration(population, index, stream, pool);
+                            job.recordEvaluations(offspringPerGeneration(population.size()));
+                            completed[islandIndex]++;
+                            if (deadlinePassed(deadline)) {
+                                break;
+                            }
+                        }
+                        return population;
+                    }));
+                }
+                for (int i = 0; i < islandCount; i++) {
+                    islands.set(i, futures.get(i).get());
+                }
+                int epochCompleted = Arrays.stream(completed).max().orElse(0);
+                generation += epochCompleted;
+                job.recordGenerations(epochCompleted);
+                
+                migrate(islands, migrants);
+                
+                DoubleSummaryStatistics fitnessStats = islands.stream()
+                        .flatMap(List::stream)
+                        .mapToDouble(c -> c.fitness)
+                        .summaryStatistics();
+                double bestFitness = fitnessStats.getCount() > 0 ? fitnessStats.getMax() : 0.0;
+                
+                if (deadline == 0) {
+                    System.out.println("第 " + generation + "/" + limitedGenerations +
+                                       " 代（" + islandCount + " 个岛屿），最佳适应度: " + bestFitness);
+                }
+                job.reportGeneration(generation, bestFitness, fitnessStats.getAverage());
+                
+                if (job.isCancelRequested()) {
+                    System.out.println("排课任务已取消，停止进化");
+                    break;
+                }
+                
+                // 截止时间模式只在到时间或没有冲突时停止
+                if (deadline != 0) {
+                    if (deadlinePassed(deadline) || bestFitness >= 1.0) {
+                        System.out.println("截止时间模式：进化 " + generation + " 代（" + islandCount +
+                                           " 个岛屿），最佳适应度: " + bestFitness);
+                        break;
+                    }
+                    continue;
+                }
+                
+                // 检查适应度改善情况
+                if (Math.abs(bestFitness - previousBestFitness) < 0.001) {
+                    noImprovementCount++;
+                    if (noImprovementCount >= 3) {  // 连续3次迁移无改善则提前终止
+                        System.out.println("连续3次迁移无明显改善，提前终止进化");
+                        break;
+                    }
+                } else {
+                    noImprovementCount = 0;
+                    previousBestFitness = bestFitness;
+                }
+                
+                // 如果达到可接受的适应度就提前终止
+                if (bestFitness >= 0.85) {
+                    System.out.println("达到可接受的适应度阈值，提前终止进化");
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("岛屿模型进化被中断", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("岛屿模型进化失败", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        
+        return islands.stream()
+                .flatMap(List::stream)
+                .max(Comparator.comparingDouble(c -> c.fitness))
+                .orElse(null);
+    }
+    
+    /**
+     * 环形迁移：每个岛屿的前 migrants 个最优个体复制到下一个岛屿，替换其中最差的个体
+     */
+    private void migrate(List<List<Chromosome>> islands, int migrants) {
+        if (migrants <= 0 || islands.size() < 2) {
+            return;
+        }
+        
+        // 先复制出所有岛屿的迁出个体，避免迁入的个体在同一轮里继续迁出
+        List<List<Chromosome>> emigrants = new ArrayList<>(islands.size());
+        for (List<Chromosome> island : islands) {
+            emigrants.add(island.stream()
+                    .sorted(Comparator.comparingDouble(c -> -c.fitness))
+                    .limit(migrants)
+                    .map(Chromosome::new)
+                    .collect(Collectors.toList()));
+        }
+        
+        for (int i = 0; i < islands.size(); i++) {
+            List<Chromosome> target = islands.get((i + 1) % islands.size());
+            target.sort(Comparator.comparingDouble(c -> c.fitness));
+            List<Chromosome> incoming = emigrants.get(i);
+            for (int m = 0; m < incoming.size(); m++) {
+                target.set(m, incoming.get(m));
+            }
+        }
+    }
+    
+    /**
+     * 每代繁殖并评估的子代数，按对生成
+     */
+    private static int offspringPerGeneration(int populationSize) {
+        return (populationSize - ELITE_COUNT + 1) / 2 * 2;
+    }
+    
+    /**
+     * 繁殖下一代种群
+     * <p>
+     * 先保留精英，再按对生成子代：选择、交叉、变异并完成评估。
+     * 每对子代使用在调用线程上按顺序拆分出的独立随机流，
+     * 传入线程池时各对子代在线程池中并行生成，结果与线程数无关。
+     */
+    List<Chromosome> breedNextGeneration(List<Chromosome> population, ScheduleIndex index,
+                                         SplittableRandom random, ForkJoinPool pool) {
+        int populationSize = population.size();
+        List<Chromosome> newPopulation = new ArrayList<>(populationSize);
+        
+        // 精英保留
+        List<Chromosome> sortedPopulation = population.stream()
+                .sorted(Comparator.comparingDouble(c -> -c.fitness))
+                .collect(Collectors.toList());
+        
+        for (int i = 0; i < ELITE_COUNT && i < sortedPopulation.size(); i++) {
+            newPopulation.add(new Chromosome(sortedPopulation.get(i)));
+        }
+        
+        // 生成新个体直到填满新种群
+        int pairCount = (populationSize - newPopulation.size() + 1) / 2;
+        SplittableRandom[] streams = new SplittableRandom[pairCount];
+        for (int p = 0; p < pairCount; p++) {
+            streams[p] = random.split();
+        }
+        Chromosome[] offspring = new Chromosome[pairCount * 2];
+        
+        if (pool != null && pairCount > 1) {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(pairCount);
+            for (int p = 0; p < pairCount; p++) {
+                final int pair = p;
+                tasks.add(pool.submit(() -> breedPair(population, index, streams[pair], offspring, pair)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
             }
-            
-            // 保存到数据库时传入classId
-            saveScheduleToDatabase(bestChromosome, courses, teachers, classrooms, classId);
         } else {
-            System.out.println("未能找到有效的排课方案");
+            for (int p = 0; p < pairCount; p++) {
+                breedPair(population, index, streams[p], offspring, p);
+            }
         }
         
-        System.out.println("======== 自动排课结束 ========");
+        for (int i = 0; newPopulation.size() < populationSize; i++) {
+            newPopulation.add(offspring[i]);
+        }
+        return newPopulation;
+    }
+    
+    /**
+     * 生成一对子代，写入 offspring[2 * pair] 和 offspring[2 * pair + 1]
+     * 只读取父代种群，可以在多个线程中同时执行
+     */
+    private void breedPair(List<Chromosome> population, ScheduleIndex index, SplittableRandom random,
+                           Chromosome[] offspring, int pair) {
+        // 选择父代
+        Chromosome parent1 = tournamentSelection(population, random);
+        Chromosome parent2 = tournamentSelection(population, random);
+        
+        // 交叉
+        Chromosome child1 = new Chromosome(parent1);
+        Chromosome child2 = new Chromosome(parent2);
+        
+        if (random.nextDouble() < CROSSOVER_RATE) {
+            crossover(child1, child2, random);
+        }
+        
+        // 变异
+        mutate(child1, index, random);
+        mutate(child2, index, random);
+        
+        // 评估
+        evaluate(child1, index);
+        evaluate(child2, index);
+        
+        offspring[2 * pair] = child1;
+        offspring[2 * pair + 1] = child2;
     }
 
     /**
      * 初始化种群
      * 
-     * @param courses 所有课程
-     * @param teachers 所有教师
-     * @param classrooms 所有教室
-     * @param classId 班级ID
+     * @param index 本次排课的索引
+     * @param preferredTeachers 下标为班级下标，每个班级中每门课程最合适的教师下标
+     * @param random 随机流
+     * @param size 种群大小
      * @return 初始化的种群
      */
-    private List<Chromosome> initializePopulation(List<Course> courses, List<Teacher> teachers, 
-                                                List<Classroom> classrooms, int classId) {
-        List<Chromosome> population = new ArrayList<>();
-        
-        for (int i = 0; i < POPULATION_SIZE; i++) {
-            Chromosome chromosome = generateRandomChromosome(courses, teachers, classrooms, classId);
+    List<Chromosome> initializePopulation(ScheduleIndex index, int[][] preferredTeachers,
+                                          SplittableRandom random, int size) {
+        List<Chromosome> population = new ArrayList<>(size);
+        
+        for (int i = 0; i < size; i++) {
+            // 增量排课时从现有课表出发，只随机待排的基因
+            Chromosome chromosome = index.warmStart != null
+                    ? index.warmStart.newChromosome(index.problem, random)
+                    : generateRandomChromosome(index, preferredTeachers, random);
             population.add(chromosome);
         }
         
@@ -241,56 +966,63 @@ public class ScheduleService {
     
     /**
      * 生成随机染色体（一个完整的排课方案）
+     * 索引中的每个班级占连续的一段基因，各班级基因的排列相同，交叉时按位置对齐。
+     * 连排课程整块放在合法的开始节次上，尽量避开本班级已放下的块
      */
-    private Chromosome generateRandomChromosome(List<Course> courses, List<Teacher> teachers, 
-                                          List<Classroom> classrooms, int classId) {
-        Random random = new Random();
-        Chromosome chromosome = new Chromosome();
-        
-        // 创建可用时间槽
-        List<int[]> availableTimeSlots = new ArrayList<>();
-        for (int day = 1; day <= DAYS; day++) {
-            for (int period = 1; period <= PERIODS_PER_DAY; period++) {
-                availableTimeSlots.add(new int[]{day, period});
-            }
-        }
-        Collections.shuffle(availableTimeSlots);  // 随机打乱时间槽
+    Chromosome generateRandomChromosome(ScheduleIndex index, int[][] preferredTeachers,
+                                        SplittableRandom random) {
+        ScheduleProblem problem = index.problem;
         
-        // 使用Set来跟踪已经安排的courseId
-        Set<String> assignedCourseIds = new HashSet<>();
+        // 索引中的课程ID已去重，每门课程一个基因，基因数不超过时段数
+        int genesPerClass = Math.min(index.courseCount(), DAYS * PERIODS_PER_DAY);
+        Chromosome chromosome = new Chromosome(genesPerClass * index.classCount());
         
-        // 为每个课程分配时间槽
-        int timeSlotIndex = 0;
-        for (Course course : courses) {
-            // 如果这个courseId已经被安排过，跳过
-            if (assignedCourseIds.contains(course.getId())) {
-                continue;
-            }
-            
-            if (timeSlotIndex >= availableTimeSlots.size()) break;
+        for (int classIndex = 0; classIndex < index.classCount(); classIndex++) {
+            // 本班级已占用的时段，第 (天-1)*每天节数+(节-1) 位
+            long used = 0;
             
-            int[] timeSlot = availableTimeSlots.get(timeSlotIndex++);
-            
-            // 找到最合适的教师
-            String teacherId = findBestTeacher(course, teachers, classId);
-            if (teacherId == null && !teachers.isEmpty()) {
-                teacherId = teachers.get(random.nextInt(teachers.size())).getId();
+            for (int i = 0; i < genesPerClass; i++) {
+                long starts = freeStarts(problem, i, used);
+                if (starts == 0) {
+                    // 放不下整块时在任意合法开始节次上放，由适应度罚分
+                    starts = freeStarts(problem, i, 0);
+                }
+                int slot = ScheduleProblem.nthBit(starts, random.nextInt(Long.bitCount(starts)));
+                int day = slot / PERIODS_PER_DAY + 1;
+                int period = slot % PERIODS_PER_DAY + 1;
+                used |= (long) problem.periodMask(i, period) << ((day - 1) * PERIODS_PER_DAY);
+                
+                // 使用最合适的教师
+                int teacher = preferredTeachers[classIndex][i];
+                if (teacher < 0) {
+                    teacher = random.nextInt(index.teacherCount());
+                }
+                
+                int room = random.nextInt(index.classroomCount());
+                
+                chromosome.setGene(classIndex * genesPerClass + i, i, teacher, room, day, period, classIndex);
             }
-            
-            String classroomId = classrooms.get(random.nextInt(classrooms.size())).getId();
-            
-            // 添加基因并记录已使用的courseId
-            chromosome.genes.add(new Object[]{
-                course.getId(), teacherId, classroomId, 
-                timeSlot[0], timeSlot[1], classId
-            });
-            
-            assignedCourseIds.add(course.getId());
         }
         
         return chromosome;
     }
     
+    /**
+     * 整块都落在 used 之外的合法开始时段：
+     * 从 s 开始的 n 节连排与 used 重叠，当且仅当 s 在 used 右移 0..n-1 位的并集中
+     */
+    static long freeStarts(ScheduleProblem problem, int course, long used) {
+        long blocked = 0;
+        for (int k = 0; k < problem.blockLength[course]; k++) {
+            blocked |= used >>> k;
+        }
+        long starts = 0;
+        for (int day = 0; day < DAYS; day++) {
+            starts |= (long) problem.blockStarts[course] << (day * PERIODS_PER_DAY);
+        }
+        return starts & ~blocked;
+    }
+    
     /**
      * 解析字符串为整数，出错时返回默认值
      */
@@ -305,261 +1037,141 @@ public class ScheduleService {
         }
     }
     
-    /**
-     * 为课程找到最合适的教师
-     */
-    private String findBestTeacher(Course course, List<Teacher> teachers, int classId) {
-        if (teachers.isEmpty()) {
-            return null;
-        }
-        
-        String courseName = course.getCourseName();
-        String originalTeacherId = course.getTeacherId();
-        
-        // 候选教师评分
-        Map<String, Integer> teacherScores = new HashMap<>();
-        
-        // 创建一个临时的染色体来检查当前排课情况
-        Chromosome tempChromosome = new Chromosome();
-        List<Timetable> existingTimetables = timetableMapper.getTimetablesByClassId(classId);
-        
-        // 将现有课表转换为染色体格式
-        for (Timetable timetable : existingTimetables) {
-            Object[] gene = new Object[]{
-                timetable.getCourseId(),
-                timetable.getTeacherId(),
-                timetable.getClassroomId(),
-                timetable.getDayOfWeek(),
-                Integer.parseInt(timetable.getPeriodInfo().split(",")[0]),
-                timetable.getClassId()
-            };
-            tempChromosome.genes.add(gene);
-        }
-        
-        for (Teacher teacher : teachers) {
-            String teacherId = teacher.getId();
-            int score = 100; // 基础分
-            
-            // 如果是原课程指定的教师，加分
-            if (teacherId.equals(originalTeacherId)) {
-                score += 50;
-            }
-            
-            // 检查教师课程数量，数量越多分数越低
-            int courseCount = 0;
-            for (Object[] gene : tempChromosome.genes) {
-                if (gene[1].equals(teacherId)) {
-                    courseCount++;
-                }
-            }
-            score -= courseCount * 10;
-            
-            // 检查教师是否已分配相同名称的课程，如果是则加分（同一老师教同名课程好）
-            Set<String> assignedCourseNames = new HashSet<>();
-            for (Object[] gene : tempChromosome.genes) {
-                if (gene[1].equals(teacherId)) {
-                    String assignedCourseId = (String) gene[0];
-                    Course assignedCourse = courseService.getCourseById(assignedCourseId);
-                    if (assignedCourse != null && assignedCourse.getCourseName().equals(courseName)) {
-                        assignedCourseNames.add(courseName);
-                    }
-                }
-            }
-            
-            if (!assignedCourseNames.isEmpty()) {
-                score += 30;
-            } else if (assignedCourseNames.size() > 0) {
-                // 如果教师已有其他课程，略微减分，鼓励教师专注于少数几种课程
-                score -= assignedCourseNames.size() * 5;
-            }
-            
-            teacherScores.put(teacherId, score);
-        }
-        
-        // 找出得分最高的教师
-        return teacherScores.entrySet().stream()
-                .max(Map.Entry.comparingByValue())
-                .map(Map.Entry::getKey)
-                .orElse(null);
-    }
-
     /**
      * 评估整个种群的适应度
+     * 染色体上保留的增量状态可以直接复用，只有交叉后的新个体需要全量构建
      */
-    private void evaluatePopulation(List<Chromosome> population, List<Course> courses, List<Teacher> teachers, List<Classroom> classrooms) {
+    private void evaluatePopulation(List<Chromosome> population, ScheduleIndex index) {
         for (Chromosome chromosome : population) {
-            chromosome.fitness = calculateFitness(chromosome, courses, teachers, classrooms);
+            evaluate(chromosome, index);
+        }
+    }
+    
+    void evaluate(Chromosome chromosome, ScheduleIndex index) {
+        if (chromosome.fitnessState == null) {
+            chromosome.fitnessState = new IncrementalFitness(index, chromosome);
         }
+        chromosome.fitness = chromosome.fitnessState.fitness();
     }
     
     /**
      * 计算染色体的适应度
      * 适应度越高表示排课方案越好（冲突越少）
+     * <p>
+     * 这是全量计算的基准实现，{@link IncrementalFitness} 的结果必须与它保持一致
      */
-    private double calculateFitness(Chromosome chromosome, List<Course> courses, 
-                              List<Teacher> teachers, List<Classroom> classrooms) {
-        // 使用更高效的数据结构
-        Set<String> timeSlots = new HashSet<>();  // 用于快速检查时间冲突
-        Map<String, Integer> teacherLoad = new HashMap<>();  // 教师课程负载
-        Set<String> courseIds = new HashSet<>();  // 用于检查课程ID重复
+    static double calculateFitness(Chromosome chromosome, ScheduleIndex index) {
+        int classCount = index.classCount();
+        int courseCount = index.courseCount();
+        
+        // 教师时段占用，按 教师-班级 分别记录每个时段已占用的周次
+        OccupancyMatrix teacherSlots = new OccupancyMatrix(index.teacherCount() * classCount);
+        // 用于检查课程ID重复，第 班级下标*课程数+课程下标 位
+        BitSet courseIds = new BitSet(classCount * courseCount);
         
-        // 班级每天课程数量统计
-        Map<Integer, Map<Integer, Integer>> classCoursesPerDay = new HashMap<>(); // 班级ID -> {天 -> 课程数}
+        // 联合排课时教师和教室在班级之间共享，按全局时段占用检查
+        OccupancyMatrix sharedTeacherSlots = index.sharedResources ? new OccupancyMatrix(index.teacherCount()) : null;
+        OccupancyMatrix sharedRoomSlots = index.sharedResources ? new OccupancyMatrix(index.classroomCount()) : null;
+        
+        // 排课设置编译出的软约束，分组第一个基因计入
+        ScheduleConstraints constraints = index.problem.constraints;
+        ScheduleConstraints.LoadState[] loadState = constraints.newLoadState(index);
         
         int conflictCount = 0;
         
-        for (Object[] gene : chromosome.genes) {
-            String courseId = (String) gene[0];
-            String teacherId = (String) gene[1];
-            String classroomId = (String) gene[2];
-            int day = (int) gene[3];
-            int period = (int) gene[4];
-            int classId = (Integer) gene[5];
+        for (int i = 0; i < chromosome.size(); i++) {
+            int course = chromosome.courses[i];
+            int teacher = chromosome.teachers[i];
+            int day = chromosome.days[i];
+            int period = chromosome.periods[i];
+            int classIndex = chromosome.classes[i];
             
             // 检查courseId是否重复
-            String courseKey = courseId + "_" + classId;  // 组合courseId和classId
-            if (!courseIds.add(courseKey)) {
+            int courseKey = classIndex * courseCount + course;  // 组合courseId和classId
+            if (courseIds.get(courseKey)) {
                 conflictCount += 10;  // 严重惩罚重复的courseId
                 continue;
             }
+            courseIds.set(courseKey);
+            
+            // 占用按周次计算，周次不相交的课程不冲突；连排课程整块占用
+            long weeks = index.problem.weekMask[course];
+            int periods = index.problem.periodMask(course, period);
             
-            // 使用复合键检查时间冲突
-            String timeSlotKey = String.format("%s_%d_%d_%d", teacherId, day, period, classId);
-            if (!timeSlots.add(timeSlotKey)) {
+            // 检查同一教室在同一时段是否已被其他课程占用
+            if (sharedRoomSlots != null && !sharedRoomSlots.occupy(chromosome.rooms[i], day, periods, weeks)) {
                 conflictCount += 5;
-                continue;
             }
             
-            // 更新教师课程负载
-            teacherLoad.merge(teacherId, 1, Integer::sum);
-            
-            // 更新班级每天课程数量统计
-            classCoursesPerDay
-                .computeIfAbsent(classId, k -> new HashMap<>())
-                .merge(day, 1, Integer::sum);
-            
-            // 检查教室容量匹配度
-            Course course = findCourseById(courses, courseId);
-            Classroom classroom = findClassroomById(classrooms, classroomId);
-            
-            if (course != null && classroom != null) {
-                // 如果课程人数超过教室容量，增加冲突
-                int classSize = 0;
-                try {
-                    classSize = Integer.parseInt(course.getClassSize());
-                } catch (NumberFormatException e) {
-                    // 如果无法解析，使用默认值
-                    classSize = 30;
-                }
-                
-                if (classSize > classroom.getCapacity()) {
-                    conflictCount += 3;  // 教室容量不匹配惩罚
-                }
-                
-                // 考虑课程优先级
-                if (course.getPriority() != null && !course.getPriority().isEmpty()) {
-                    try {
-                        int priority = Integer.parseInt(course.getPriority());
-                        // 高优先级课程（1-2）在早上安排更好
-                        if (priority <= 2 && period > 4) {
-                            conflictCount += 1;  // 轻微惩罚高优先级课程安排在下午
-                        }
-                        
-                        // 体育课程优先安排在下午
-                        if ("体育".equals(course.getCourseNature()) && period <= 4) {
-                            conflictCount += 2;  // 中等惩罚体育课安排在上午
-                        }
-                    } catch (NumberFormatException e) {
-                        // 忽略无法解析的优先级
-                    }
-                }
-            }
-        }
-        
-        // 检查教师负载是否平衡
-        for (int load : teacherLoad.values()) {
-            if (load > 16) {  // 如果教师负载超过16节课
-                conflictCount += (load - 16);
+            // 检查同一教师在本班级同一时段是否已有课程
+            if (!teacherSlots.occupy(teacher * classCount + classIndex, day, periods, weeks)) {
+                conflictCount += 5;
+                continue;
             }
-        }
-        
-        // 检查班级课程分布均匀性
-        for (Map<Integer, Integer> dayLoads : classCoursesPerDay.values()) {
-            // 计算每天课程数的标准差，标准差越小表示分布越均匀
-            double mean = dayLoads.values().stream().mapToInt(Integer::intValue).average().orElse(0);
-            double variance = dayLoads.values().stream()
-                    .mapToDouble(count -> Math.pow(count - mean, 2))
-                    .average().orElse(0);
-            double stdDev = Math.sqrt(variance);
             
-            // 标准差大于1.5表示分布不均匀，增加惩罚
-            if (stdDev > 1.5) {
-                conflictCount += Math.round(stdDev);
+            // 检查同一教师在同一时段是否已在其他班级上课
+            if (sharedTeacherSlots != null && !sharedTeacherSlots.occupy(teacher, day, periods, weeks)) {
+                conflictCount += 5;
             }
             
-            // 检查每天课程数是否过多
-            for (int count : dayLoads.values()) {
-                if (count > 8) {  // 如果一天超过8节课
-                    conflictCount += (count - 8) * 2;
-                }
-            }
+            // 教室容量、课程时段、教师和班级负载等软约束
+            int room = chromosome.rooms[i];
+            conflictCount += constraints.genePenalty(index.problem, course, room, day, period)
+                    + constraints.updateLoads(loadState, index, teacher, classIndex, course, room, day, period, 1);
         }
         
         // 计算适应度，冲突越少适应度越高
         return 1.0 / (1.0 + conflictCount);
     }
-    
+
     /**
      * 锦标赛选择法
      * 从种群中随机选取一定数量的个体，然后返回其中适应度最高的个体
      */
-    private Chromosome tournamentSelection(List<Chromosome> population) {
-        Random random = new Random();
-        List<Chromosome> tournament = new ArrayList<>();
+    Chromosome tournamentSelection(List<Chromosome> population, SplittableRandom random) {
+        Chromosome best = null;
         
-        // 随机选择 TOURNAMENT_SIZE 个个体进入锦标赛
+        // 随机选择 TOURNAMENT_SIZE 个个体进入锦标赛，返回其中适应度最高的个体
         for (int i = 0; i < TOURNAMENT_SIZE; i++) {
-            int randomIndex = random.nextInt(population.size());
-            tournament.add(population.get(randomIndex));
+            Chromosome candidate = population.get(random.nextInt(population.size()));
+            if (best == null || candidate.fitness > best.fitness) {
+                best = candidate;
+            }
         }
         
-        // 返回锦标赛中适应度最高的个体
-        return tournament.stream()
-                .max(Comparator.comparingDouble(c -> c.fitness))
-                .orElse(population.get(0));
+        return best != null ? best : population.get(0);
     }
     
     /**
      * 交叉操作
-     * 将两个父代染色体的部分基因交换，生成两个子代染色体
+     * 两个子代分别由父代拷贝而来，随机选择交叉点后原地交换交叉点之后的基因
      */
-    private void crossover(Chromosome parent1, Chromosome parent2, Chromosome child1, Chromosome child2) {
-        Random random = new Random();
-        int geneLength = parent1.genes.size();
+    void crossover(Chromosome child1, Chromosome child2, SplittableRandom random) {
+        int geneLength = Math.min(child1.size(), child2.size());
         
         if (geneLength == 0) {
-            child1 = new Chromosome(parent1);
-            child2 = new Chromosome(parent2);
             return;
         }
         
         // 随机选择交叉点
         int crossoverPoint = random.nextInt(geneLength);
         
-        // 创建子代
-        child1.genes = new ArrayList<>();
-        child2.genes = new ArrayList<>();
-        
-        // 交叉前半部分
-        for (int i = 0; i < crossoverPoint; i++) {
-            child1.genes.add(parent1.genes.get(i).clone());
-            child2.genes.add(parent2.genes.get(i).clone());
-        }
-        
-        // 交叉后半部分
-        for (int i = crossoverPoint; i < geneLength; i++) {
-            child1.genes.add(parent2.genes.get(i).clone());
-            child2.genes.add(parent1.genes.get(i).clone());
+        // 交换后半部分，原有的增量状态随之失效
+        child1.fitnessState = null;
+        child2.fitnessState = null;
+        swapTail(child1.courses, child2.courses, crossoverPoint, geneLength);
+        swapTail(child1.teachers, child2.teachers, crossoverPoint, geneLength);
+        swapTail(child1.rooms, child2.rooms, crossoverPoint, geneLength);
+        swapTail(child1.days, child2.days, crossoverPoint, geneLength);
+        swapTail(child1.periods, child2.periods, crossoverPoint, geneLength);
+        swapTail(child1.classes, child2.classes, crossoverPoint, geneLength);
+    }
+    
+    private static void swapTail(int[] a, int[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int tmp = a[i];
+            a[i] = b[i];
+            b[i] = tmp;
         }
     }
     
@@ -567,185 +1179,235 @@ public class ScheduleService {
      * 变异操作
      * 随机修改染色体中的某些基因，以增加种群多样性
      */
-    private void mutate(Chromosome chromosome, List<Course> courses, List<Teacher> teachers, List<Classroom> classrooms) {
-        Random random = new Random();
+    void mutate(Chromosome chromosome, ScheduleIndex index, SplittableRandom random) {
+        int courseCount = index.courseCount();
         
-        // 统计每个班级中各课程出现的次数
-        Map<Integer, Map<String, Integer>> classCourseCount = new HashMap<>();
+        // 统计每个班级中各课程出现的次数，[班级下标] -> 课程下标 -> 次数
+        int[][] classCourseCount = new int[index.classCount()][];
         
         // 首先统计课程分布情况
-        for (Object[] gene : chromosome.genes) {
-            String courseId = (String) gene[0];
-            int classId = (Integer) gene[5];
-            
-            classCourseCount
-                .computeIfAbsent(classId, k -> new HashMap<>())
-                .merge(courseId, 1, Integer::sum);
-        }
-        
-        for (int i = 0; i < chromosome.genes.size(); i++) {
-            if (random.nextDouble() < MUTATION_RATE) {
-                Object[] gene = chromosome.genes.get(i);
-                String courseId = (String) gene[0];
-                int classId = (Integer) gene[5];
-                int day = (int) gene[3];
-                int period = (int) gene[4];
+        for (int i = 0; i < chromosome.size(); i++) {
+            int classIndex = chromosome.classes[i];
+            if (classCourseCount[classIndex] == null) {
+                classCourseCount[classIndex] = new int[courseCount];
+            }
+            classCourseCount[classIndex][chromosome.courses[i]]++;
+        }
+        
+        for (int i = 0; i < chromosome.size(); i++) {
+            if (random.nextDouble() < MUTATION_RATE && !index.isPinned(i)) {
+                int course = chromosome.courses[i];
+                int period = chromosome.periods[i];
                 
                 // 获取当前班级的课程分布
-                Map<String, Integer> courseCount = classCourseCount.getOrDefault(classId, new HashMap<>());
+                int[] courseCounts = classCourseCount[chromosome.classes[i]];
                 
                 // 如果某课程出现次数过多(>2)，尝试替换为出现次数较少的其他课程
-                if (courseCount.getOrDefault(courseId, 0) > 2) {
-                    // 找出出现次数最少的课程
-                    Optional<String> leastUsedCourse = courseCount.entrySet().stream()
-                            .filter(e -> e.getValue() < 2)  // 只考虑出现次数少于2的课程
-                            .min(Map.Entry.comparingByValue())
-                            .map(Map.Entry::getKey);
+                if (courseCounts[course] > 2) {
+                    // 找出只出现过1次的课程
+                    int leastUsedCourse = -1;
+                    for (int c = 0; c < courseCount; c++) {
+                        if (courseCounts[c] == 1) {
+                            leastUsedCourse = c;
+                            break;
+                        }
+                    }
                     
-                    if (leastUsedCourse.isPresent()) {
+                    if (leastUsedCourse >= 0) {
                         // 更新课程计数
-                        courseCount.merge(courseId, -1, Integer::sum);
-                        courseCount.merge(leastUsedCourse.get(), 1, Integer::sum);
+                        courseCounts[course]--;
+                        courseCounts[leastUsedCourse]++;
                         
                         // 更新基因
-                        gene[0] = leastUsedCourse.get();
+                        chromosome.changeCourse(i, leastUsedCourse);
                         
                         // 根据新课程的优先级调整时间段
-                        Course newCourse = findCourseById(courses, leastUsedCourse.get());
-                        if (newCourse != null && newCourse.getPriority() != null && !newCourse.getPriority().isEmpty()) {
-                            try {
-                                int priority = Integer.parseInt(newCourse.getPriority());
-                                // 高优先级课程（1-2）优先安排在上午
-                                if (priority <= 2 && period > 4) {
-                                    gene[4] = random.nextInt(4) + 1; // 1-4节为上午
-                                }
-                                
-                                // 体育课程优先安排在下午
-                                if ("体育".equals(newCourse.getCourseNature()) && period <= 4) {
-                                    gene[4] = random.nextInt(4) + 5; // 5-8节为下午
-                                }
-                            } catch (NumberFormatException e) {
-                                // 忽略无法解析的优先级
+                        int priority = index.problem.priority[leastUsedCourse];
+                        if (priority != ScheduleProblem.NO_PRIORITY) {
+                            // 高优先级课程（1-2）优先安排在上午
+                            if (priority <= 2 && period > 4) {
+                                chromosome.moveGene(i, chromosome.days[i],
+                                        index.problem.randomStart(leastUsedCourse, MORNING_PERIODS, random));
+                            }
+                            
+                            // 体育课程优先安排在下午
+                            if (index.problem.physicalEducation[leastUsedCourse] && period <= 4) {
+                                chromosome.moveGene(i, chromosome.days[i],
+                                        index.problem.randomStart(leastUsedCourse, ~MORNING_PERIODS, random));
                             }
                         }
                     } else {
                         // 如果没有出现次数少的课程，随机变异时间和教室
-                        gene[3] = random.nextInt(5) + 1; // 随机一天 (1-5)
-                        gene[4] = random.nextInt(8) + 1; // 随机一节 (1-8)
+                        int day = random.nextInt(5) + 1; // 随机一天 (1-5)
+                        chromosome.moveGene(i, day, index.problem.randomStart(course, -1, random)); // 随机合法开始节次
                     }
                 } else {
                     // 正常变异：随机变异时间和教室
-                    gene[3] = random.nextInt(5) + 1; // 随机一天 (1-5)
-                    gene[4] = random.nextInt(8) + 1; // 随机一节 (1-8)
+                    int day = random.nextInt(5) + 1; // 随机一天 (1-5)
+                    chromosome.moveGene(i, day, index.problem.randomStart(course, -1, random)); // 随机合法开始节次
+                    
+                    // 联合排课时教室在班级之间共享，同时更换教室以避开占用；增量排课时待排基因同样换教室
+                    if (index.sharedResources || index.warmStart != null) {
+                        chromosome.changeRoom(i, random.nextInt(index.classroomCount()));
+                    }
                 }
             }
         }
     }
     
     /**
-     * 将最佳染色体保存到数据库
+     * 将最佳染色体中某个班级的基因转换为课表记录
+     * 基因中的下标在这里才还原为字符串ID
      */
-    private void saveScheduleToDatabase(Chromosome chromosome, List<Course> courses, 
-                                  List<Teacher> teachers, List<Classroom> classrooms, 
-                                  Integer classId) {
-        System.out.println("开始保存排课结果到数据库，班级ID: " + classId);
+    private List<Timetable> buildTimetables(Chromosome chromosome, ScheduleIndex index, int classId) {
+        // 联合排课的染色体包含多个班级，只取本班级的基因
+        int classIndex = index.indexOfClass(classId);
+        List<Integer> classGenes = new ArrayList<>();
+        for (int g = 0; g < chromosome.size(); g++) {
+            if (chromosome.classes[g] == classIndex) {
+                classGenes.add(g);
+            }
+        }
         
-        try {
-            // 先删除该班级的旧数据
-            timetableMapper.deleteByClassId(classId);
-            
-            // 用于检查courseId重复
-            Set<String> usedCourseIds = new HashSet<>();
-            
-            // 限制处理的记录数
-            int maxRecords = Math.min(MAX_WEEKLY_RECORDS, chromosome.genes.size());
-            System.out.println("准备插入 " + maxRecords + " 条记录");
-            
-            int successCount = 0;
-            int failCount = 0;
+        // 限制处理的记录数
+        int maxRecords = Math.min(MAX_WEEKLY_RECORDS, classGenes.size());
+        List<Timetable> timetables = new ArrayList<>(maxRecords);
+        
+        // 用于检查courseId重复
+        Set<String> usedCourseIds = new HashSet<>();
+        
+        for (int r = 0; r < maxRecords; r++) {
+            int i = classGenes.get(r);
+            String courseId = index.courseId(chromosome.courses[i]);
             
-            for (int i = 0; i < maxRecords && i < chromosome.genes.size(); i++) {
-                Object[] gene = chromosome.genes.get(i);
-                try {
-                    String courseId = (String) gene[0];
-                    
-                    // 检查courseId是否已经使用过
-                    if (usedCourseIds.contains(courseId)) {
-                        System.out.println("警告：课程ID " + courseId + " 重复，跳过此记录");
-                        continue;
-                    }
-                    
-                    String teacherId = (String) gene[1];
-                    String classroomId = (String) gene[2];
-                    int day = (int) gene[3];
-                    int period = (int) gene[4];
-                    
-                    Course course = courseService.getCourseById(courseId);
-                    if (course == null) {
-                        System.out.println("警告：找不到ID为 " + courseId + " 的课程，跳过此记录");
-                        continue;
-                    }
-                    
-                    // 创建排课记录
-                    Timetable timetable = new Timetable();
-                    timetable.setCourseId(courseId);
-                    timetable.setTeacherId(teacherId);
-                    timetable.setClassroomId(classroomId);
-                    timetable.setScheduleTime(calculateScheduleTime(day, period));
-                    timetable.setDayOfWeek(day);
-                    timetable.setClassId(classId);
-                    
-                    // 设置节次信息
-                    StringBuilder periodInfoBuilder = new StringBuilder();
-                    int consecutiveSections = course.getConsecutiveSections();
-                    if (consecutiveSections <= 0) {
-                        consecutiveSections = 1;
-                    }
-                    consecutiveSections = Math.min(consecutiveSections, 3);
-                    
-                    for (int p = period; p < period + consecutiveSections && p <= PERIODS_PER_DAY; p++) {
-                        if (periodInfoBuilder.length() > 0) {
-                            periodInfoBuilder.append(",");
-                        }
-                        periodInfoBuilder.append(p);
-                    }
-                    timetable.setPeriodInfo(periodInfoBuilder.toString());
-                    
-                    System.out.println("尝试插入第 " + (i+1) + "/" + maxRecords + " 条记录: " + 
-                                     "课程=" + courseId + 
-                                     ", 教师=" + teacherId + 
-                                     ", 教室=" + classroomId + 
-                                     ", 节次=" + period + 
-                                     ", 星期=" + day +
-                                     ", 班级=" + classId);
-                    
-                    // 执行插入操作
-                    int result = timetableMapper.insertTimetable(timetable);
-                    if (result > 0) {
-                        successCount++;
-                        System.out.println("第 " + (i+1) + " 条记录插入成功");
-                    } else {
-                        failCount++;
-                        System.out.println("第 " + (i+1) + " 条记录插入失败");
-                    }
-                    
-                    // 记录已使用的courseId
-                    usedCourseIds.add(courseId);
-                } catch (Exception e) {
-                    failCount++;
-                    System.out.println("插入记录失败: " + e.getMessage());
-                    e.printStackTrace();
-                }
+            // 检查courseId是否已经使用过
+            if (!usedCourseIds.add(courseId)) {
+                System.out.println("警告：课程ID " + courseId + " 重复，跳过此记录");
+                continue;
             }
             
-            System.out.println("\n排课保存完成: 成功 " + successCount + " 条，失败 " + failCount + " 条");
+            timetables.add(toTimetable(chromosome, index, i, classId));
+        }
+        return timetables;
+    }
+    
+    /**
+     * 将一个基因转换为课表记录
+     */
+    private Timetable toTimetable(Chromosome chromosome, ScheduleIndex index, int i, int classId) {
+        Course course = index.course(chromosome.courses[i]);
+        int day = chromosome.days[i];
+        int period = chromosome.periods[i];
+        
+        // 创建排课记录
+        Timetable timetable = new Timetable();
+        timetable.setCourseId(course.getId());
+        timetable.setTeacherId(index.teacherId(chromosome.teachers[i]));
+        timetable.setClassroomId(index.classroomId(chromosome.rooms[i]));
+        timetable.setScheduleTime(calculateScheduleTime(day, period));
+        timetable.setDayOfWeek(day);
+        timetable.setClassId(classId);
+        
+        // 设置节次信息，与适应度检查的连排节次一致
+        StringBuilder periodInfoBuilder = new StringBuilder();
+        int periods = index.problem.periodMask(chromosome.courses[i], period);
+        while (periods != 0) {
+            if (periodInfoBuilder.length() > 0) {
+                periodInfoBuilder.append(",");
+            }
+            periodInfoBuilder.append(Integer.numberOfTrailingZeros(periods) + 1);
+            periods &= periods - 1;
+        }
+        timetable.setPeriodInfo(periodInfoBuilder.toString());
+        return timetable;
+    }
+    
+    /**
+     * 将排课结果保存到数据库，每个班级先删除旧课表再插入新记录
+     *
+     * @param timetables 班级ID -> 课表记录
+     */
+    public void saveSchedule(Map<Integer, List<Timetable>> timetables) {
+        long start = System.nanoTime();
+        int rows = 0;
+        for (Map.Entry<Integer, List<Timetable>> entry : timetables.entrySet()) {
+            rows += saveTimetables(entry.getKey(), entry.getValue());
+        }
+        scheduleMetrics.recordPersist(System.nanoTime() - start, rows);
+    }
+    
+    /**
+     * 发布班级的新课表：新记录写入新版本，与版本号的更新在同一个事务中提交。
+     * 提交前查询看到的始终是完整的旧版本，任何一步失败整个班级回滚；旧版本的记录提交后在后台删除
+     *
+     * @return 插入的记录数
+     */
+    private int saveTimetables(Integer classId, List<Timetable> timetables) {
+        try {
+            Integer rows = transactionTemplate.execute(status -> publishVersion(classId, timetables));
+            timetableVersionCollector.collect(classId);
+            System.out.println("班级 " + classId + " 排课结果已发布，共 " + rows + " 条记录");
+            return rows != null ? rows : 0;
         } catch (Exception e) {
-            System.out.println("保存排课结果时发生错误: " + e.getMessage());
+            System.out.println("保存排课结果时发生错误，班级 " + classId + " 已回滚: " + e.getMessage());
             e.printStackTrace();
             throw new RuntimeException("保存排课结果失败", e);
         }
     }
     
+    /**
+     * 班级版本号加1，并把记录写入新版本；必须在事务中调用
+     */
+    private int publishVersion(Integer classId, List<Timetable> timetables) {
+        timetableMapper.advanceVersion(classId);
+        long version = timetableMapper.getVersion(classId);
+        return insertInBatches(timetables, version);
+    }
+    
+    /**
+     * 按配置的批大小分段，每段一条多行INSERT
+     */
+    private int insertInBatches(List<Timetable> timetables, long version) {
+        int batchSize = Math.max(1, scheduleProperties.getPersist().getBatchSize());
+        int rows = 0;
+        for (int from = 0; from < timetables.size(); from += batchSize) {
+            rows += timetableMapper.insertTimetables(
+                    timetables.subList(from, Math.min(from + batchSize, timetables.size())), version);
+        }
+        return rows;
+    }
+    
+    /**
+     * 增量保存：排课时读到的版本中去掉作废的旧记录、加上新记录，作为新版本发布。
+     * 未变化的记录在数据库内用 INSERT ... SELECT 带入新版本，只有变化的记录从应用程序写入。
+     * 版本号按比较并更新推进，排课期间班级已发布了其他版本时放弃保存，不会在新版本上重复带入记录
+     *
+     * @param baseVersion 读取现有记录时班级的当前版本
+     */
+    private void saveChanges(Integer classId, long baseVersion, List<Timetable> staleRows,
+                             List<Timetable> timetables) {
+        System.out.println("保存增量排课结果，班级ID: " + classId + "，删除 " + staleRows.size() +
+                           " 条，插入 " + timetables.size() + " 条");
+        long start = System.nanoTime();
+        Set<Integer> staleIds = staleRows.stream().map(Timetable::getId).collect(Collectors.toSet());
+        try {
+            Integer rows = transactionTemplate.execute(status -> {
+                if (timetableMapper.advanceVersionFrom(classId, baseVersion) == 0) {
+                    throw new IllegalStateException("第" + classId + "班的课表在增量排课期间已被更新，请重新排课");
+                }
+                long version = baseVersion + 1;
+                return timetableMapper.carryForward(classId, baseVersion, version, staleIds)
+                        + insertInBatches(timetables, version);
+            });
+            timetableVersionCollector.collect(classId);
+            scheduleMetrics.recordPersist(System.nanoTime() - start, rows != null ? rows : 0);
+        } catch (Exception e) {
+            System.out.println("保存增量排课结果时发生错误: " + e.getMessage());
+            e.printStackTrace();
+            throw new RuntimeException("保存增量排课结果失败：" + e.getMessage(), e);
+        }
+    }
+    
     /**
      * 确保教师的课程分配均衡，预处理基因数组
      */
@@ -1258,42 +1920,114 @@ public class ScheduleService {
     }
 
     public void autoScheduleMultiClass(int classCount) {
-        System.out.println("======== 开始为" + classCount + "个班级排课 ========");
-        
-        // 预加载所有数据，避免重复查询
-        List<Course> courses = courseService.list();
-        List<Teacher> teachers = teacherService.list();
-        List<Classroom> classrooms = classroomService.list();
-        
-        if (courses.isEmpty() || teachers.isEmpty() || classrooms.isEmpty()) {
-            System.out.println("错误：缺少排课所需数据，无法进行自动排课");
-            return;
-        }
-        
+        autoScheduleMultiClass(classCount, false, null);
+    }
+
+    /**
+     * 多班级排课
+     *
+     * @param classCount 班级数量，班级ID为1到classCount
+     * @param joint 为true时所有班级在同一个搜索空间中联合排课，教师和教室跨班级不冲突；
+     *              为false时各班级在线程池中独立排课
+     * @param seed 随机种子，为null时随机生成
+     */
+    public void autoScheduleMultiClass(int classCount, boolean joint, Long seed) {
+        autoScheduleMultiClass(classCount, joint, seed, ScheduleJob.Engine.GA);
+    }
+
+    /**
+     * 多班级排课，指定排课引擎
+     */
+    public void autoScheduleMultiClass(int classCount, boolean joint, Long seed, ScheduleJob.Engine engine) {
+        autoSchedule(ScheduleJob.multiClass(classCount, joint, seed, true).withEngine(engine));
+        System.out.println("======== 所有班级排课完成 ========");
+    }
+
+    /**
+     * 各班级在线程池中独立排课
+     */
+    private Map<Integer, List<Timetable>> scheduleClassesInParallel(int[] classIds, ScheduleProblem problem,
+                                                                   SplittableRandom random, ScheduleJob job) {
         // 使用线程池并行处理多个班级的排课
         int processors = Runtime.getRuntime().availableProcessors();
         ExecutorService executor = Executors.newFixedThreadPool(processors);
-        List<Future<?>> futures = new ArrayList<>();
+        List<Future<List<Timetable>>> futures = new ArrayList<>();
         
-        for (int classId = 1; classId <= classCount; classId++) {
+        for (int classId : classIds) {
             final int currentClassId = classId;
+            // 按班级顺序在当前线程拆分随机流，结果与线程调度无关
+            final SplittableRandom classRandom = random.split();
             futures.add(executor.submit(() -> {
+                if (job.isCancelRequested()) {
+                    return null;
+                }
                 System.out.println("\n开始为第" + currentClassId + "班排课...");
-                autoSchedule(currentClassId);
+                return scheduleClass(currentClassId, problem, classRandom, job);
             }));
         }
         
         // 等待所有班级排课完成
-        for (Future<?> future : futures) {
+        Map<Integer, List<Timetable>> result = new LinkedHashMap<>();
+        for (int c = 0; c < classIds.length; c++) {
             try {
-                future.get();
+                List<Timetable> timetables = futures.get(c).get();
+                if (timetables != null) {
+                    result.put(classIds[c], timetables);
+                }
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
         
         executor.shutdown();
-        System.out.println("======== 所有班级排课完成 ========");
+        return result;
+    }
+
+    /**
+     * 联合排课：一条染色体包含所有班级的基因，适应度按全局的教师、教室时段占用检查跨班级冲突。
+     * 子代在线程池中并行繁殖，并行度与独立排课时的班级线程池相同
+     */
+    private Map<Integer, List<Timetable>> scheduleJoint(int[] classIds, ScheduleProblem problem,
+                                                       SplittableRandom random, ScheduleJob job) {
+        int classCount = classIds.length;
+        ScheduleIndex index = new ScheduleIndex(problem, true, classIds);
+        System.out.println("联合排课，处理 " + classCount + " 个班级，" + problem.courseCount() + " 门课程，" +
+                         problem.teacherCount() + " 名教师，" + problem.classroomCount() + " 间教室");
+        
+        // 一次查询所有现有课表，按班级为每门课程挑选教师
+        Map<Integer, List<Timetable>> timetablesByClass = timetableMapper.getAllTimetables().stream()
+                .filter(t -> t.getClassId() != null)
+                .collect(Collectors.groupingBy(Timetable::getClassId));
+        int[][] preferredTeachers = new int[classCount][];
+        for (int c = 0; c < classCount; c++) {
+            List<Timetable> existing = timetablesByClass.getOrDefault(classIds[c], Collections.emptyList());
+            preferredTeachers[c] = new TeacherAssignments(problem, existing).bestTeachers();
+        }
+        
+        // 没有配置并行繁殖时临时创建线程池，避免联合排课退化为单线程
+        ForkJoinPool pool = breedingPool != null
+                ? breedingPool
+                : new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        Chromosome bestChromosome;
+        try {
+            bestChromosome = search(index, preferredTeachers, random, pool, job);
+        } finally {
+            if (pool != breedingPool) {
+                pool.shutdown();
+            }
+        }
+        
+        Map<Integer, List<Timetable>> result = new LinkedHashMap<>();
+        if (bestChromosome == null) {
+            System.out.println("未能找到有效的排课方案");
+            return result;
+        }
+        System.out.println("联合排课算法完成，最终适应度: " + bestChromosome.fitness);
+        
+        for (int classId : classIds) {
+            result.put(classId, buildTimetables(bestChromosome, index, classId));
+        }
+        return result;
     }
 
     // 添加新的辅助方法来检查时间冲突
@@ -1316,20 +2050,4 @@ public class ScheduleService {
         }
         return false;
     }
-
-    // 辅助方法：根据ID查找课程
-    private Course findCourseById(List<Course> courses, String courseId) {
-        return courses.stream()
-                .filter(c -> c.getId().equals(courseId))
-                .findFirst()
-                .orElse(null);
-    }
-
-    // 辅助方法：根据ID查找教室
-    private Classroom findClassroomById(List<Classroom> classrooms, String classroomId) {
-        return classrooms.stream()
-                .filter(c -> c.getId().equals(classroomId))
-                .findFirst()
-                .orElse(null);
-    }
 }
\ No newline at end of file
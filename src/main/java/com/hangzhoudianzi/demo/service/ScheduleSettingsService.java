@@ -5,6 +5,7 @@ import com.hangzhoudianzi.demo.pojo.resource.ScheduleSettings;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.Comparator;
 import java.util.List;
 
 @Service
@@ -16,6 +17,16 @@ public class ScheduleSettingsService {
         return scheduleSettingsMapper.getScheduleSettingsById(id);
     }
 
+    /**
+     * 当前生效的排课设置，即最近添加的一条；没有设置时返回null
+     */
+    public ScheduleSettings getActiveSettings() {
+        return getAllScheduleSettings().stream()
+                .filter(settings -> settings.getId() != null)
+                .max(Comparator.comparingInt(ScheduleSettings::getId))
+                .orElse(null);
+    }
+
     public List<ScheduleSettings> getAllScheduleSettings() {
         return scheduleSettingsMapper.getAllScheduleSettings();
     }
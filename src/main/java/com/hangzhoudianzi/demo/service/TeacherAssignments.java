@@ -0,0 +1,115 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.pojo.people.Course;
+import com.hangzhoudianzi.demo.pojo.resource.Timetable;
+
+import java.util.*;
+
+/**
+ * 班级现有课表中教师的任课情况
+ * <p>
+ * 每次排课从现有课表构建一次：教师 -> 已安排的课程数、课程名称 -> 已教过该名称课程的教师。
+ * 为课程挑选教师时只查内存，不再访问数据库。
+ */
+class TeacherAssignments {
+    private final ScheduleProblem problem;
+    private final int[] assignedCount;
+    private final Map<String, int[]> teachersByCourseName = new HashMap<>();
+
+    TeacherAssignments(ScheduleProblem problem, List<Timetable> existingTimetables) {
+        this.problem = problem;
+        this.assignedCount = new int[problem.teacherCount()];
+
+        Map<String, Set<Integer>> namedTeachers = new HashMap<>();
+        for (Timetable timetable : existingTimetables) {
+            int teacher = problem.indexOfTeacher(timetable.getTeacherId());
+            if (teacher < 0) {
+                continue;
+            }
+            assignedCount[teacher]++;
+
+            int course = problem.indexOfCourse(timetable.getCourseId());
+            String courseName = course >= 0 ? problem.course(course).getCourseName() : null;
+            if (courseName != null) {
+                namedTeachers.computeIfAbsent(courseName, k -> new TreeSet<>()).add(teacher);
+            }
+        }
+        for (Map.Entry<String, Set<Integer>> entry : namedTeachers.entrySet()) {
+            teachersByCourseName.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    /**
+     * 为每门课程找到最合适的教师
+     * <p>
+     * 评分规则：基础分100；课程原指定的教师加50分；教师已有课程每门减10分；
+     * 教师已教过同名课程加30分（同一老师教同名课程好）。分数相同时取教师列表中靠前的。
+     *
+     * @return 下标为课程下标，值为教师下标；没有教师时为-1
+     */
+    int[] bestTeachers() {
+        int[] best = new int[problem.courseCount()];
+        if (problem.teacherCount() == 0) {
+            Arrays.fill(best, -1);
+            return best;
+        }
+
+        // 不考虑加分时得分最高的教师，任何课程的最佳教师只可能是它或者拿到加分的教师
+        int baseTeacher = 0;
+        for (int t = 1; t < assignedCount.length; t++) {
+            if (baseScore(t) > baseScore(baseTeacher)) {
+                baseTeacher = t;
+            }
+        }
+
+        for (int c = 0; c < best.length; c++) {
+            Course course = problem.course(c);
+            int originalTeacher = problem.indexOfTeacher(course.getTeacherId());
+            int[] sameName = course.getCourseName() != null
+                    ? teachersByCourseName.get(course.getCourseName()) : null;
+
+            int bestTeacher = baseTeacher;
+            int bestScore = score(baseTeacher, originalTeacher, sameName);
+            if (originalTeacher >= 0) {
+                int candidateScore = score(originalTeacher, originalTeacher, sameName);
+                if (isBetter(candidateScore, originalTeacher, bestScore, bestTeacher)) {
+                    bestTeacher = originalTeacher;
+                    bestScore = candidateScore;
+                }
+            }
+            if (sameName != null) {
+                for (int teacher : sameName) {
+                    int candidateScore = score(teacher, originalTeacher, sameName);
+                    if (isBetter(candidateScore, teacher, bestScore, bestTeacher)) {
+                        bestTeacher = teacher;
+                        bestScore = candidateScore;
+                    }
+                }
+            }
+            best[c] = bestTeacher;
+        }
+        return best;
+    }
+
+    private int baseScore(int teacher) {
+        // 检查教师课程数量，数量越多分数越低
+        return 100 - assignedCount[teacher] * 10;
+    }
+
+    private int score(int teacher, int originalTeacher, int[] sameName) {
+        int score = baseScore(teacher);
+        // 如果是原课程指定的教师，加分
+        if (teacher == originalTeacher) {
+            score += 50;
+        }
+        // 教师已分配相同名称的课程则加分
+        if (sameName != null && Arrays.binarySearch(sameName, teacher) >= 0) {
+            score += 30;
+        }
+        return score;
+    }
+
+    private static boolean isBetter(int score, int teacher, int bestScore, int bestTeacher) {
+        return score > bestScore || (score == bestScore && teacher < bestTeacher);
+    }
+}
@@ -1,6 +1,7 @@
 package com.hangzhoudianzi.demo.service;
 
 import com.hangzhoudianzi.demo.mapper.TimetableMapper;
+import com.hangzhoudianzi.demo.pojo.dto.TimetableDTO;
 import com.hangzhoudianzi.demo.pojo.resource.Timetable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -24,9 +25,22 @@ public class TimetableService {
         return timetableMapper.getAllTimetables();
     }
     
-    public Map<Integer, List<Timetable>> getAllClassesTimetables() {
-        List<Timetable> allTimetables = timetableMapper.getAllTimetables();
+    // 以下查询直接返回带课程名、起止周和教师姓名的DTO，整张课表只需一次查询
+    public List<TimetableDTO> getTimetableDTOs() {
+        return timetableMapper.getTimetableDTOs();
+    }
+
+    public List<TimetableDTO> getTimetableDTOsByClassId(Integer classId) {
+        return timetableMapper.getTimetableDTOsByClassId(classId);
+    }
+
+    public List<TimetableDTO> getTimetableDTOsByTeacherId(String teacherId) {
+        return timetableMapper.getTimetableDTOsByTeacherId(teacherId);
+    }
+
+    public Map<Integer, List<TimetableDTO>> getAllClassesTimetables() {
+        List<TimetableDTO> allTimetables = timetableMapper.getTimetableDTOs();
         return allTimetables.stream()
-                .collect(Collectors.groupingBy(Timetable::getClassId));
+                .collect(Collectors.groupingBy(TimetableDTO::getClassId));
     }
 }
\ No newline at end of file
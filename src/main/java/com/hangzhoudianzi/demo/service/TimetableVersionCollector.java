@@ -0,0 +1,58 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.mapper.TimetableMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 后台删除旧版本的课表记录
+ * <p>
+ * 新版本提交后旧记录已经不会被查询到，删除放到单独的线程上执行，不占用保存排课结果的时间。
+ * 删除条件是“不是班级当前版本”，重复执行或与下一次保存交错都不会删掉当前版本；
+ * 同一班级排队中的删除只保留一个，删除失败的记录留到该班级下一次保存后再删。
+ */
+@Service
+public class TimetableVersionCollector {
+    @Autowired
+    private TimetableMapper timetableMapper;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "timetable-gc");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 已排队、尚未开始删除的班级
+    private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 安排删除班级的旧版本记录
+     */
+    public void collect(Integer classId) {
+        if (!pending.add(classId)) {
+            return;
+        }
+        executor.execute(() -> {
+            pending.remove(classId);
+            try {
+                int rows = timetableMapper.deleteStaleVersions(classId);
+                if (rows > 0) {
+                    System.out.println("已删除班级 " + classId + " 的 " + rows + " 条旧版本课表记录");
+                }
+            } catch (Exception e) {
+                System.out.println("删除班级 " + classId + " 的旧版本课表记录失败: " + e.getMessage());
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
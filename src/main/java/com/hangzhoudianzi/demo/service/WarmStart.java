@@ -0,0 +1,148 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.pojo.resource.Timetable;
+
+import java.util.*;
+
+/**
+ * 增量排课的起点
+ * <p>
+ * 由班级已保存的课表构造：课程未变化、且课程、教师、教室、时间都能识别的记录原样固定为基因，
+ * 其余记录作废，对应的课程连同新增或变化的课程一起作为待排基因，只为它们搜索时间和教室。
+ * 染色体只包含固定基因和待排基因，没有课表记录的其他课程不参与本次排课。
+ */
+class WarmStart {
+    // 固定基因在前、待排基因在后的模板，待排基因的时间和教室在生成个体时随机
+    final ScheduleService.Chromosome template;
+    final boolean[] pinned;
+    // 待排基因的位置
+    final int[] freeGenes;
+    // 需要从数据库删除的旧记录
+    final List<Timetable> staleRows;
+
+    private WarmStart(ScheduleService.Chromosome template, boolean[] pinned, int[] freeGenes,
+                      List<Timetable> staleRows) {
+        this.template = template;
+        this.pinned = pinned;
+        this.freeGenes = freeGenes;
+        this.staleRows = staleRows;
+    }
+
+    /**
+     * @param existingTimetables 班级已保存的课表
+     * @param changedCourseIds 新增或变化的课程ID，不存在的课程ID被忽略
+     * @param preferredTeachers 每门课程最合适的教师下标，为-1时随机挑选
+     */
+    static WarmStart fromTimetables(ScheduleProblem problem, List<Timetable> existingTimetables,
+                                    Collection<String> changedCourseIds, int[] preferredTeachers,
+                                    SplittableRandom random) {
+        Set<Integer> changed = new LinkedHashSet<>();
+        for (String courseId : changedCourseIds) {
+            int course = problem.indexOfCourse(courseId);
+            if (course >= 0) {
+                changed.add(course);
+            } else {
+                System.out.println("警告：课程ID " + courseId + " 不存在，忽略");
+            }
+        }
+
+        List<int[]> pinnedGenes = new ArrayList<>();
+        Set<Integer> pinnedCourses = new HashSet<>();
+        List<Timetable> staleRows = new ArrayList<>();
+        for (Timetable timetable : existingTimetables) {
+            int[] gene = toGene(problem, timetable);
+            if (gene == null || changed.contains(gene[0]) || !pinnedCourses.add(gene[0])) {
+                staleRows.add(timetable);
+                // 无法识别的记录对应的课程也需要重新安排
+                int course = problem.indexOfCourse(timetable.getCourseId());
+                if (gene == null && course >= 0) {
+                    changed.add(course);
+                }
+            } else {
+                pinnedGenes.add(gene);
+            }
+        }
+        changed.removeAll(pinnedCourses);
+
+        ScheduleService.Chromosome template = new ScheduleService.Chromosome(pinnedGenes.size() + changed.size());
+        boolean[] pinned = new boolean[template.size()];
+        int g = 0;
+        for (int[] gene : pinnedGenes) {
+            template.setGene(g, gene[0], gene[1], gene[2], gene[3], gene[4], 0);
+            pinned[g++] = true;
+        }
+        int[] freeGenes = new int[changed.size()];
+        int f = 0;
+        for (int course : changed) {
+            int teacher = preferredTeachers[course];
+            if (teacher < 0) {
+                teacher = random.nextInt(problem.teacherCount());
+            }
+            template.setGene(g, course, teacher, 0, 1, 1, 0);
+            freeGenes[f++] = g++;
+        }
+        return new WarmStart(template, pinned, freeGenes, staleRows);
+    }
+
+    /**
+     * 课表记录转为基因 [课程, 教师, 教室, 星期, 起始节次]，无法识别时返回null
+     */
+    private static int[] toGene(ScheduleProblem problem, Timetable timetable) {
+        int course = problem.indexOfCourse(timetable.getCourseId());
+        int teacher = problem.indexOfTeacher(timetable.getTeacherId());
+        int room = problem.indexOfClassroom(timetable.getClassroomId());
+        Integer day = timetable.getDayOfWeek();
+        int period = firstPeriod(timetable.getPeriodInfo());
+        if (course < 0 || teacher < 0 || room < 0 || day == null || day < 1 || day > ScheduleService.DAYS
+                || period < 1) {
+            return null;
+        }
+        return new int[]{course, teacher, room, day, period};
+    }
+
+    private static int firstPeriod(String periodInfo) {
+        if (periodInfo == null || periodInfo.isEmpty()) {
+            return -1;
+        }
+        try {
+            int period = Integer.parseInt(periodInfo.split(",")[0].trim());
+            return period <= ScheduleService.PERIODS_PER_DAY ? period : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    boolean isPinned(int gene) {
+        return pinned[gene];
+    }
+
+    /**
+     * 复制模板，待排基因整块放到固定基因没有占用的随机合法时段和随机教室
+     */
+    ScheduleService.Chromosome newChromosome(ScheduleProblem problem, SplittableRandom random) {
+        ScheduleService.Chromosome chromosome = new ScheduleService.Chromosome(template);
+        // 已占用的时段，第 (天-1)*每天节数+(节-1) 位
+        long used = 0;
+        for (int i = 0; i < chromosome.size(); i++) {
+            if (pinned[i]) {
+                used |= (long) problem.periodMask(chromosome.courses[i], chromosome.periods[i])
+                        << ((chromosome.days[i] - 1) * ScheduleService.PERIODS_PER_DAY);
+            }
+        }
+        for (int i : freeGenes) {
+            int course = chromosome.courses[i];
+            long starts = ScheduleService.freeStarts(problem, course, used);
+            // 没有空闲时段时在任意合法开始节次上放
+            if (starts == 0) {
+                starts = ScheduleService.freeStarts(problem, course, 0);
+            }
+            int slot = ScheduleProblem.nthBit(starts, random.nextInt(Long.bitCount(starts)));
+            int day = slot / ScheduleService.PERIODS_PER_DAY + 1;
+            int period = slot % ScheduleService.PERIODS_PER_DAY + 1;
+            used |= (long) problem.periodMask(course, period) << ((day - 1) * ScheduleService.PERIODS_PER_DAY);
+            chromosome.setGene(i, course, chromosome.teachers[i], random.nextInt(problem.classroomCount()),
+                    day, period, 0);
+        }
+        return chromosome;
+    }
+}
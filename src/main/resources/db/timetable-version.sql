@@ -0,0 +1,12 @@
+-- 课表按版本发布
+-- 保存排课结果时新记录写入新版本，与 timetable_version 中的版本号更新在同一个事务中提交，
+-- 查询只返回班级当前版本的记录，旧版本的记录由后台删除。已有记录属于版本0，升级后仍然可见。
+-- 应用启动时由 TimetableSchemaMigration 检查 timetable.version 列，不存在时执行本脚本；也可以手工执行。
+
+CREATE TABLE IF NOT EXISTS timetable_version (
+    class_id INT NOT NULL PRIMARY KEY,
+    version BIGINT NOT NULL
+);
+
+ALTER TABLE timetable ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
+CREATE INDEX idx_timetable_class_version ON timetable (class_id, version);
@@ -0,0 +1,124 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.pojo.resource.Timetable;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import static com.hangzhoudianzi.demo.service.IncrementalFitnessTest.randomIndex;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConstraintSolverTest {
+
+    private static int[][] roundRobinTeachers(ScheduleIndex index, int genesPerClass) {
+        int[][] teachers = new int[index.classCount()][genesPerClass];
+        for (int c = 0; c < index.classCount(); c++) {
+            for (int i = 0; i < genesPerClass; i++) {
+                teachers[c][i] = (c * genesPerClass + i) % index.teacherCount();
+            }
+        }
+        return teachers;
+    }
+
+    private static boolean anyRoomFits(ScheduleProblem problem, int course) {
+        for (int r = 0; r < problem.classroomCount(); r++) {
+            if (problem.classSize[course] <= problem.roomCapacity[r]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    void jointSolutionHasNoClashes() {
+        Random random = new Random(7);
+        for (int round = 0; round < 10; round++) {
+            ScheduleIndex index = new ScheduleIndex(randomIndex(random, 20, 6, 6).problem, true, 1, 2, 3);
+            ScheduleJob job = ScheduleJob.multiClass(3, true, null, false);
+            ConstraintSolver solver = new ConstraintSolver(index, roundRobinTeachers(index, 20),
+                    Collections.emptyList(), new SplittableRandom(round));
+            ScheduleService.Chromosome solution = solver.solve(10_000, 100, job);
+
+            assertNotNull(solution, "round " + round);
+            // 周次不相交的课程可以共用时段，用与遗传算法相同的占用矩阵检查
+            OccupancyMatrix classSlots = new OccupancyMatrix(index.classCount());
+            OccupancyMatrix teacherSlots = new OccupancyMatrix(index.teacherCount());
+            OccupancyMatrix roomSlots = new OccupancyMatrix(index.problem.classroomCount());
+            for (int i = 0; i < solution.size(); i++) {
+                int day = solution.days[i];
+                int course = solution.courses[i];
+                int periods = index.problem.periodMask(course, solution.periods[i]);
+                assertTrue(index.problem.isLegalStart(course, solution.periods[i]), "连排开始节次不合法");
+                long weeks = index.problem.weekMask[course];
+                assertTrue(classSlots.occupy(solution.classes[i], day, periods, weeks), "班级冲突");
+                assertTrue(teacherSlots.occupy(solution.teachers[i], day, periods, weeks), "教师冲突");
+                assertTrue(roomSlots.occupy(solution.rooms[i], day, periods, weeks), "教室冲突");
+                if (anyRoomFits(index.problem, solution.courses[i])) {
+                    assertTrue(index.problem.classSize[solution.courses[i]]
+                            <= index.problem.roomCapacity[solution.rooms[i]], "教室容量不足");
+                }
+            }
+        }
+    }
+
+    @Test
+    void existingTimetablesBlockTeacherSlots() {
+        ScheduleIndex index = randomIndex(new Random(3), 10, 1, 3, 1);
+        // 唯一的教师周一全天已有课
+        Timetable busy = new Timetable();
+        busy.setTeacherId("T0");
+        busy.setDayOfWeek(1);
+        busy.setPeriodInfo("1,2,3,4,5,6,7,8");
+        List<Timetable> fixed = Collections.singletonList(busy);
+
+        ScheduleService.Chromosome solution = new ConstraintSolver(index, new int[][]{new int[10]}, fixed,
+                new SplittableRandom(1)).solve(10_000, 100, ScheduleJob.singleClass(1, null, false));
+
+        assertNotNull(solution);
+        for (int i = 0; i < solution.size(); i++) {
+            assertNotEquals(1, solution.days[i]);
+        }
+    }
+
+    @Test
+    void infeasibleProblemStopsWithinBudget() {
+        // 一名教师要上两个班共80节课，一周只有40节
+        ScheduleIndex index = new ScheduleIndex(randomIndex(new Random(5), 40, 1, 4).problem, true, 1, 2);
+        long start = System.currentTimeMillis();
+        ScheduleService.Chromosome solution = new ConstraintSolver(index, new int[2][40], Collections.emptyList(),
+                new SplittableRandom(1)).solve(300, 50, ScheduleJob.multiClass(2, true, null, false));
+
+        assertNull(solution);
+        assertTrue(System.currentTimeMillis() - start < 5_000);
+    }
+
+    @Test
+    void deepSearchDoesNotOverflowTheStack() throws Exception {
+        // 200个班级共2400个变量，搜索深度与变量数相同，放在小栈线程中运行
+        int[] classIds = new int[200];
+        for (int c = 0; c < classIds.length; c++) {
+            classIds[c] = c + 1;
+        }
+        ScheduleIndex index = new ScheduleIndex(randomIndex(new Random(11), 12, 200, 300).problem, true, classIds);
+        ConstraintSolver solver = new ConstraintSolver(index, roundRobinTeachers(index, 12),
+                Collections.emptyList(), new SplittableRandom(1));
+        ScheduleService.Chromosome[] solution = new ScheduleService.Chromosome[1];
+        Throwable[] error = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                solution[0] = solver.solve(30_000, 1_000, ScheduleJob.multiClass(classIds.length, true, null, false));
+            } catch (Throwable e) {
+                error[0] = e;
+            }
+        }, "csp-small-stack", 128 * 1024);
+        thread.start();
+        thread.join();
+
+        assertNull(error[0], () -> "搜索抛出异常：" + error[0]);
+        assertNotNull(solution[0]);
+        assertEquals(2400, solution[0].size());
+    }
+}
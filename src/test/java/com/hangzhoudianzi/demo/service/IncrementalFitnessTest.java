@@ -0,0 +1,329 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.pojo.people.Course;
+import com.hangzhoudianzi.demo.pojo.people.Teacher;
+import com.hangzhoudianzi.demo.pojo.resource.Classroom;
+import com.hangzhoudianzi.demo.pojo.resource.ScheduleSettings;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IncrementalFitnessTest {
+
+    static ScheduleIndex randomIndex(Random random, int courseCount, int teacherCount, int roomCount, int... classIds) {
+        String[] sizes = {"20", "45", "80", "", "abc"};
+        String[] priorities = {"1", "2", "3", "", null, "x"};
+        String[] natures = {"体育", "必修", "选修"};
+        // 周次：缺失、全学期、前后半学期和交叠的周次
+        int[][] weeks = {{0, 0}, {1, 16}, {1, 8}, {9, 16}, {5, 12}};
+        // 连排节数以单节为主，0按单节处理
+        int[] sections = {0, 1, 1, 1, 2, 3};
+        List<Course> courses = new ArrayList<>();
+        for (int i = 0; i < courseCount; i++) {
+            Course course = new Course();
+            course.setId("C" + i);
+            course.setCourseName("课程" + (i % 7));
+            course.setClassSize(sizes[random.nextInt(sizes.length)]);
+            course.setPriority(priorities[random.nextInt(priorities.length)]);
+            course.setCourseNature(natures[random.nextInt(natures.length)]);
+            int[] range = weeks[random.nextInt(weeks.length)];
+            course.setBeginWeek(range[0]);
+            course.setEndWeek(range[1]);
+            course.setConsecutiveSections(sections[random.nextInt(sections.length)]);
+            courses.add(course);
+        }
+        List<Teacher> teachers = new ArrayList<>();
+        for (int i = 0; i < teacherCount; i++) {
+            Teacher teacher = new Teacher();
+            teacher.setId("T" + i);
+            teachers.add(teacher);
+        }
+        List<Classroom> classrooms = new ArrayList<>();
+        for (int i = 0; i < roomCount; i++) {
+            Classroom classroom = new Classroom();
+            classroom.setId("R" + i);
+            classroom.setCapacity(30 + random.nextInt(60));
+            classrooms.add(classroom);
+        }
+        return new ScheduleIndex(courses, teachers, classrooms, classIds);
+    }
+
+    static ScheduleService.Chromosome randomChromosome(Random random, ScheduleIndex index, int geneCount) {
+        ScheduleService.Chromosome chromosome = new ScheduleService.Chromosome(geneCount);
+        for (int i = 0; i < geneCount; i++) {
+            chromosome.setGene(i,
+                    random.nextInt(index.courseCount()),
+                    random.nextInt(index.teacherCount()),
+                    random.nextInt(index.classroomCount()),
+                    random.nextInt(ScheduleService.DAYS) + 1,
+                    random.nextInt(ScheduleService.PERIODS_PER_DAY) + 1,
+                    random.nextInt(index.classCount()));
+        }
+        return chromosome;
+    }
+
+    @Test
+    void incrementalMatchesFullRecomputation() {
+        assertIncrementalMatches(new Random(42), false, ScheduleConstraints.DEFAULT);
+    }
+
+    @Test
+    void incrementalMatchesFullRecomputationWithSharedResources() {
+        assertIncrementalMatches(new Random(43), true, ScheduleConstraints.DEFAULT);
+    }
+
+    @Test
+    void incrementalMatchesFullRecomputationWithAllSettingConstraints() {
+        ScheduleConstraints constraints = ScheduleConstraints.compile(strictSettings(), Collections.emptyMap());
+        assertIncrementalMatches(new Random(44), false, constraints);
+        assertIncrementalMatches(new Random(45), true, constraints);
+    }
+
+    @Test
+    void disabledConstraintCostsNothing() {
+        ScheduleIndex index = randomIndex(new Random(9), 10, 2, 3, 1);
+        ScheduleSettings settings = strictSettings();
+        ScheduleConstraints strict = ScheduleConstraints.compile(settings, Collections.emptyMap());
+        ScheduleConstraints relaxed = ScheduleConstraints.compile(settings,
+                Collections.singletonMap("periods-per-day", 0));
+        // 单节课程，超出的节次只有一节
+        int course = 0;
+        while (index.problem.blockLength[course] != 1) {
+            course++;
+        }
+        assertEquals(10, strict.genePenalty(index.problem, course, 0, 1, 8)
+                - strict.genePenalty(index.problem, course, 0, 1, 6));
+        assertEquals(relaxed.genePenalty(index.problem, course, 0, 1, 6),
+                relaxed.genePenalty(index.problem, course, 0, 1, 8));
+        assertEquals(false, relaxed.toString().contains("periods-per-day"));
+    }
+
+    @Test
+    void blocksStartOnConfiguredPeriodsAndOccupyWholeBlock() {
+        ScheduleSettings settings = new ScheduleSettings();
+        settings.setTwoPeriodBlockStart(Arrays.asList(1, 3, 5, 7));
+        settings.setFourPeriodBlockStart(Arrays.asList(1, 5, 7));
+        ScheduleIndex random = randomIndex(new Random(2), 4, 1, 1, 1);
+        List<Course> courses = random.problem.courses();
+        int[] sections = {4, 2, 1, 3};
+        for (int c = 0; c < courses.size(); c++) {
+            courses.get(c).setConsecutiveSections(sections[c]);
+            courses.get(c).setBeginWeek(1);
+            courses.get(c).setEndWeek(16);
+            // 不受上午、下午的软约束影响
+            courses.get(c).setPriority("3");
+            courses.get(c).setCourseNature("必修");
+        }
+        ScheduleProblem problem = new ScheduleProblem(courses, random.problem.teachers(),
+                random.problem.classrooms(), ScheduleConstraints.compile(settings, Collections.emptyMap()));
+
+        // 7节开始的四节连排放不下，只剩1、5节
+        assertEquals(0b00010001, problem.blockStarts[0]);
+        assertEquals(0b01010101, problem.blockStarts[1]);
+        assertEquals(0b11111111, problem.blockStarts[2]);
+        assertEquals(0b00111111, problem.blockStarts[3]);
+        assertEquals(0b11110000, problem.periodMask(0, 5));
+
+        // 同一教师同一班级：5-8节的四节连排与第8节的单节课冲突，与第4节的不冲突
+        ScheduleIndex index = new ScheduleIndex(problem, 1);
+        ScheduleService.Chromosome chromosome = new ScheduleService.Chromosome(2);
+        chromosome.setGene(0, 0, 0, 0, 1, 5, 0);
+        chromosome.setGene(1, 2, 0, 0, 1, 8, 0);
+        IncrementalFitness state = new IncrementalFitness(index, chromosome);
+        assertEquals(ScheduleService.calculateFitness(chromosome, index), state.fitness());
+        int clashing = state.conflictCount();
+        state.moveGene(1, 1, 4);
+        assertEquals(ScheduleService.calculateFitness(chromosome, index), state.fitness());
+        assertEquals(clashing - 5, state.conflictCount());
+    }
+
+    @Test
+    void incrementalMatchesFullRecomputationWithMultiPeriodBlocks() {
+        ScheduleConstraints constraints = ScheduleConstraints.compile(strictSettings(), Collections.emptyMap());
+        assertIncrementalMatches(new Random(46), false, constraints, 2, 3);
+        assertIncrementalMatches(new Random(47), true, constraints, 2, 3);
+    }
+
+    @Test
+    void periodLimitsCountEveryPeriodOfABlock() {
+        ScheduleSettings settings = new ScheduleSettings();
+        settings.setTeacherMaxPeriodsPerDay(3);
+        settings.setTeacherMaxMorningPeriods(1);
+        settings.setTeacherMaxAfternoonPeriods(1);
+        Map<String, Integer> only = new HashMap<>();
+        only.put("teacher-weekly-load", 0);
+        only.put("class-daily-load", 0);
+
+        // 两节连排 4-5 节跨上午和下午，加上第1节和第6节的单节课：全天4节、上午2节、下午2节
+        ScheduleProblem problem = blockProblem(new int[]{2, 1, 1}, new boolean[3], settings, only);
+        assertEquals(2 * 1 + 2 * 1 + 2 * 1, loadPenalty(problem, new int[]{0, 1, 2}, new int[]{4, 1, 6}));
+
+        // 周负载：两节和三节连排共5节，上限4节
+        settings = new ScheduleSettings();
+        settings.setTeacherMaxPeriodsPerWeek(4);
+        only.remove("teacher-weekly-load");
+        problem = blockProblem(new int[]{2, 3}, new boolean[2], settings, only);
+        assertEquals(1, loadPenalty(problem, new int[]{0, 1}, new int[]{1, 5}));
+    }
+
+    @Test
+    void blockRunningPastTheLastPeriodIsPenalizedPerPeriod() {
+        ScheduleSettings settings = new ScheduleSettings();
+        settings.setTotalPeriodsPerDay(6);
+        ScheduleProblem problem = blockProblem(new int[]{3}, new boolean[1], settings, Collections.emptyMap());
+        ScheduleConstraints constraints = problem.constraints;
+        assertEquals(constraints.genePenalty(problem, 0, 0, 1, 4), constraints.genePenalty(problem, 0, 0, 1, 3));
+        assertEquals(10, constraints.genePenalty(problem, 0, 0, 1, 5) - constraints.genePenalty(problem, 0, 0, 1, 4));
+        assertEquals(20, constraints.genePenalty(problem, 0, 0, 1, 6) - constraints.genePenalty(problem, 0, 0, 1, 4));
+    }
+
+    @Test
+    void courseAfterLastPeriodOfPeBlockIsPenalized() {
+        ScheduleSettings settings = new ScheduleSettings();
+        settings.setScheduleAfterPeClass(false);
+        Map<String, Integer> only = new HashMap<>();
+        only.put("teacher-weekly-load", 0);
+        only.put("class-daily-load", 0);
+        ScheduleProblem problem = blockProblem(new int[]{2, 1}, new boolean[]{true, false}, settings, only);
+
+        // 体育课连排 3-4 节：第5节有课罚分，块内的第4节不算
+        assertEquals(2, loadPenalty(problem, new int[]{0, 1}, new int[]{3, 5}));
+        assertEquals(0, loadPenalty(problem, new int[]{0}, new int[]{3}));
+        assertEquals(0, loadPenalty(problem, new int[]{0, 1}, new int[]{3, 2}));
+    }
+
+    /**
+     * 一个教师、一个班级的课程，sections 为各课程的连排节数，不受优先级和容量的软约束影响
+     */
+    private static ScheduleProblem blockProblem(int[] sections, boolean[] physicalEducation, ScheduleSettings settings,
+                                                Map<String, Integer> weights) {
+        ScheduleIndex random = randomIndex(new Random(3), sections.length, 1, 1, 1);
+        List<Course> courses = random.problem.courses();
+        for (int c = 0; c < courses.size(); c++) {
+            courses.get(c).setConsecutiveSections(sections[c]);
+            courses.get(c).setBeginWeek(1);
+            courses.get(c).setEndWeek(16);
+            courses.get(c).setPriority("3");
+            courses.get(c).setCourseNature(physicalEducation[c] ? "体育" : "必修");
+        }
+        return new ScheduleProblem(courses, random.problem.teachers(), random.problem.classrooms(),
+                ScheduleConstraints.compile(settings, weights));
+    }
+
+    /**
+     * 同一教师在周一依次加入课程的累计约束加权罚分
+     */
+    private static int loadPenalty(ScheduleProblem problem, int[] courses, int[] periods) {
+        ScheduleIndex index = new ScheduleIndex(problem, 1);
+        ScheduleConstraints.LoadState[] state = problem.constraints.newLoadState(index);
+        int penalty = 0;
+        for (int i = 0; i < courses.length; i++) {
+            penalty += problem.constraints.updateLoads(state, index, 0, 0, courses[i], 0, 1, periods[i], 1);
+        }
+        return penalty;
+    }
+
+    private static ScheduleSettings strictSettings() {
+        ScheduleSettings settings = new ScheduleSettings();
+        settings.setTotalPeriodsPerDay(6);
+        settings.setTeacherMaxPeriodsPerDay(3);
+        settings.setTeacherMaxPeriodsPerWeek(10);
+        settings.setTeacherMaxMorningPeriods(2);
+        settings.setTeacherMaxAfternoonPeriods(2);
+        settings.setPeClassAfternoonOnly(true);
+        settings.setScheduleAfterPeClass(false);
+        settings.setSameClassroomForSameCourse(true);
+        settings.setConcentrateClassroomForClass(true);
+        settings.setConcentrateClassroomForTeacher(true);
+        return settings;
+    }
+
+    /**
+     * @param sections 不为空时每门课程的连排节数从中随机选取
+     */
+    private static void assertIncrementalMatches(Random random, boolean sharedResources,
+                                                 ScheduleConstraints constraints, int... sections) {
+        for (int round = 0; round < 50; round++) {
+            // 教师很少时冲突和超负载都会频繁出现
+            ScheduleIndex index = randomIndex(random, 60, 1 + random.nextInt(6), 8, 1, 2, 3);
+            if (sections.length > 0) {
+                for (Course course : index.problem.courses()) {
+                    course.setConsecutiveSections(sections[random.nextInt(sections.length)]);
+                }
+            }
+            ScheduleProblem problem = new ScheduleProblem(index.problem.courses(), index.problem.teachers(),
+                    index.problem.classrooms(), constraints);
+            index = new ScheduleIndex(problem, sharedResources, 1, 2, 3);
+            ScheduleService.Chromosome chromosome = randomChromosome(random, index, 40 + random.nextInt(80));
+            IncrementalFitness state = new IncrementalFitness(index, chromosome);
+            assertEquals(ScheduleService.calculateFitness(chromosome, index), state.fitness());
+
+            for (int step = 0; step < 300; step++) {
+                int gene = random.nextInt(chromosome.size());
+                switch (random.nextInt(3)) {
+                    case 0:
+                        state.moveGene(gene, random.nextInt(ScheduleService.DAYS) + 1,
+                                random.nextInt(ScheduleService.PERIODS_PER_DAY) + 1);
+                        break;
+                    case 1:
+                        state.changeRoom(gene, random.nextInt(index.classroomCount()));
+                        break;
+                    default:
+                        state.changeTeacher(gene, random.nextInt(index.teacherCount()));
+                        break;
+                }
+                assertEquals(ScheduleService.calculateFitness(chromosome, index), state.fitness(),
+                        "round " + round + " step " + step);
+            }
+        }
+    }
+
+    @Test
+    void copiedStateFollowsItsOwnChromosome() {
+        Random random = new Random(7);
+        ScheduleIndex index = randomIndex(random, 40, 4, 5, 1);
+        ScheduleService.Chromosome original = randomChromosome(random, index, 40);
+        original.fitnessState = new IncrementalFitness(index, original);
+        ScheduleService.Chromosome copy = new ScheduleService.Chromosome(original);
+
+        for (int step = 0; step < 200; step++) {
+            copy.moveGene(random.nextInt(copy.size()), random.nextInt(ScheduleService.DAYS) + 1,
+                    random.nextInt(ScheduleService.PERIODS_PER_DAY) + 1);
+        }
+        assertEquals(ScheduleService.calculateFitness(original, index), original.fitnessState.fitness());
+        assertEquals(ScheduleService.calculateFitness(copy, index), copy.fitnessState.fitness());
+    }
+
+    @Test
+    void roomUseKeepsOnlyPairsInUse() {
+        Random random = new Random(11);
+        ScheduleConstraints.RoomUse use = new ScheduleConstraints.RoomUse(1);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int step = 0; step < 20_000; step++) {
+            long key = random.nextInt(300);
+            if (random.nextInt(3) > 0 || !expected.containsKey(key)) {
+                int count = expected.merge(key, 1, Integer::sum);
+                assertEquals(count, use.add(key));
+            } else {
+                int count = expected.merge(key, -1, Integer::sum);
+                if (count == 0) {
+                    expected.remove(key);
+                }
+                assertEquals(count, use.remove(key));
+            }
+            assertEquals(expected.size(), use.size());
+        }
+        ScheduleConstraints.RoomUse copy = (ScheduleConstraints.RoomUse) use.copy();
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue() - 1, copy.remove(entry.getKey()));
+        }
+    }
+}
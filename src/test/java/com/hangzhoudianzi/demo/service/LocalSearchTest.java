@@ -0,0 +1,73 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.config.ScheduleProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import static com.hangzhoudianzi.demo.service.IncrementalFitnessTest.randomChromosome;
+import static com.hangzhoudianzi.demo.service.IncrementalFitnessTest.randomIndex;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalSearchTest {
+
+    private static ScheduleProperties.LocalSearch settings(ScheduleProperties.LocalSearch.Method method) {
+        ScheduleProperties.LocalSearch settings = new ScheduleProperties.LocalSearch();
+        settings.setMethod(method);
+        settings.setTimeBudgetMillis(10_000);
+        settings.setMaxIterations(20_000);
+        return settings;
+    }
+
+    private static void assertImproves(ScheduleProperties.LocalSearch.Method method) {
+        Random random = new Random(11);
+        for (int round = 0; round < 5; round++) {
+            ScheduleIndex index = randomIndex(random, 40, 3, 6, 1, 2);
+            index = new ScheduleIndex(index.problem, true, 1, 2);
+            ScheduleService.Chromosome start = randomChromosome(random, index, 60);
+            double initial = ScheduleService.calculateFitness(start, index);
+
+            ScheduleJob job = ScheduleJob.singleClass(1, null, false);
+            ScheduleService.Chromosome best = new LocalSearch(index, settings(method), new SplittableRandom(round))
+                    .run(start, job);
+
+            // 增量状态与全量计算一致，且不会比初始解差
+            double fitness = ScheduleService.calculateFitness(best, index);
+            assertEquals(fitness, best.fitness);
+            assertEquals(fitness, best.fitnessState.fitness());
+            assertTrue(fitness > initial, method + " round " + round + ": " + initial + " -> " + fitness);
+        }
+    }
+
+    @Test
+    void annealingReducesConflicts() {
+        assertImproves(ScheduleProperties.LocalSearch.Method.ANNEALING);
+    }
+
+    @Test
+    void tabuReducesConflicts() {
+        assertImproves(ScheduleProperties.LocalSearch.Method.TABU);
+    }
+
+    @Test
+    void iterationBoundedSearchIsReproducible() {
+        Random random = new Random(5);
+        ScheduleIndex index = randomIndex(random, 40, 3, 6, 1);
+        ScheduleService.Chromosome start = randomChromosome(random, index, 40);
+        ScheduleProperties.LocalSearch settings = settings(ScheduleProperties.LocalSearch.Method.TABU);
+        settings.setMaxIterations(2_000);
+        ScheduleJob job = ScheduleJob.singleClass(1, null, false);
+
+        ScheduleService.Chromosome first = new LocalSearch(index, settings, new SplittableRandom(3))
+                .run(new ScheduleService.Chromosome(start), job);
+        ScheduleService.Chromosome second = new LocalSearch(index, settings, new SplittableRandom(3))
+                .run(new ScheduleService.Chromosome(start), job);
+
+        assertArrayEquals(first.days, second.days);
+        assertArrayEquals(first.periods, second.periods);
+        assertArrayEquals(first.rooms, second.rooms);
+    }
+}
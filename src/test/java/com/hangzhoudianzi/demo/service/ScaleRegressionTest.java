@@ -0,0 +1,117 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.config.ScheduleProperties;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 按规模档位的排课回归测试
+ * <p>
+ * 每个档位用合成数据做一次联合排课，记录耗时、堆内存峰值和最终冲突数，
+ * 写入 target/scale-report.csv，任何一项超过 scale-baseline.properties 中的上限即失败。
+ * 默认只运行small档，其他档位通过 -Dschedule.scale.tiers=small,medium,large 指定。
+ * 档位名加 -rooms 后缀（如 large-rooms）时同时启用三项教室集中约束，检查其状态的内存和耗时。
+ */
+class ScaleRegressionTest {
+    private static final long SEED = 2024L;
+    private static final String ROOMS_SUFFIX = "-rooms";
+    private static final Map<String, SyntheticDataset.Scale> TIERS = new LinkedHashMap<>();
+
+    static {
+        TIERS.put(SyntheticDataset.SMALL.name, SyntheticDataset.SMALL);
+        TIERS.put(SyntheticDataset.MEDIUM.name, SyntheticDataset.MEDIUM);
+        TIERS.put(SyntheticDataset.LARGE.name, SyntheticDataset.LARGE);
+    }
+
+    @TestFactory
+    List<DynamicTest> scaleTiers() throws IOException {
+        Properties baseline = new Properties();
+        try (InputStream in = ScaleRegressionTest.class.getResourceAsStream("/scale-baseline.properties")) {
+            assertNotNull(in, "缺少 scale-baseline.properties");
+            baseline.load(in);
+        }
+        List<DynamicTest> tests = new ArrayList<>();
+        for (String tier : System.getProperty("schedule.scale.tiers", "small,small-rooms").split(",")) {
+            String name = tier.trim();
+            boolean rooms = name.endsWith(ROOMS_SUFFIX);
+            SyntheticDataset.Scale scale = TIERS.get(rooms ? name.substring(0, name.length() - ROOMS_SUFFIX.length()) : name);
+            assertNotNull(scale, "未知的规模档位 " + tier);
+            tests.add(DynamicTest.dynamicTest(rooms ? scale + " 教室集中" : scale.toString(), () -> runTier(name, scale, rooms, baseline)));
+        }
+        return tests;
+    }
+
+    private static void runTier(String tier, SyntheticDataset.Scale scale, boolean rooms, Properties baseline)
+            throws IOException {
+        SyntheticDataset dataset = SyntheticDataset.generate(scale, SEED);
+        if (rooms) {
+            dataset.settings.setSameClassroomForSameCourse(true);
+            dataset.settings.setConcentrateClassroomForClass(true);
+            dataset.settings.setConcentrateClassroomForTeacher(true);
+        }
+        ScheduleProperties properties = new ScheduleProperties();
+        properties.getCache().setEnabled(false);
+        ScheduleService scheduleService = dataset.newScheduleService(properties);
+
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .collect(Collectors.toList());
+        System.gc();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        ScheduleJob job = ScheduleJob.multiClass(scale.classes, true, SEED, false);
+        long start = System.nanoTime();
+        int scheduledClasses = scheduleService.solve(job).size();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        long peakHeapMb = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum() >> 20;
+        int conflicts = job.getConflictCount();
+
+        String line = String.join(",", tier, String.valueOf(scale.courses), String.valueOf(scale.teachers),
+                String.valueOf(scale.rooms), String.valueOf(scale.classes), String.valueOf(millis),
+                String.valueOf(peakHeapMb), String.valueOf(conflicts));
+        System.out.println("规模回归 " + tier + " " + scale + "：耗时" + millis + "ms，堆峰值" + peakHeapMb + "MB，冲突" + conflicts);
+        report(line);
+
+        assertEquals(scale.classes, scheduledClasses);
+        assertWithin(baseline, tier + ".maxMillis", millis);
+        assertWithin(baseline, tier + ".maxHeapMb", peakHeapMb);
+        assertWithin(baseline, tier + ".maxConflicts", conflicts);
+    }
+
+    private static void assertWithin(Properties baseline, String key, long actual) {
+        String limit = baseline.getProperty(key);
+        assertNotNull(limit, "scale-baseline.properties 缺少 " + key);
+        assertTrue(actual <= Long.parseLong(limit.trim()), key + " 回归：实际 " + actual + "，上限 " + limit);
+    }
+
+    private static void report(String line) throws IOException {
+        Path path = Paths.get("target", "scale-report.csv");
+        Files.createDirectories(path.getParent());
+        boolean header = !Files.exists(path);
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+             PrintWriter out = new PrintWriter(writer)) {
+            if (header) {
+                out.println("tier,courses,teachers,rooms,classes,millis,peakHeapMb,conflicts");
+            }
+            out.println(line);
+        }
+    }
+}
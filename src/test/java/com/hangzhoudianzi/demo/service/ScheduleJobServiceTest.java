@@ -0,0 +1,129 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.config.ScheduleProperties;
+import com.hangzhoudianzi.demo.pojo.resource.Timetable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ScheduleJobServiceTest {
+    private ScheduleService scheduleService;
+    private ScheduleProperties properties;
+    private ScheduleJobService jobService;
+
+    @BeforeEach
+    void setUp() {
+        scheduleService = mock(ScheduleService.class);
+        properties = new ScheduleProperties();
+        properties.getJob().setThreads(1);
+        properties.getJob().setMaxJobs(2);
+        jobService = new ScheduleJobService();
+        ReflectionTestUtils.setField(jobService, "scheduleService", scheduleService);
+        ReflectionTestUtils.setField(jobService, "scheduleProperties", properties);
+        jobService.initExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        jobService.shutdownExecutor();
+    }
+
+    private static void awaitFinished(ScheduleJob job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!job.isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(job.isFinished(), "任务未在5秒内结束");
+    }
+
+    @Test
+    void completedJobKeepsResultAndPersistsOnce() throws InterruptedException {
+        Map<Integer, List<Timetable>> result = Collections.singletonMap(1, Collections.singletonList(new Timetable()));
+        when(scheduleService.solve(any())).thenReturn(result);
+
+        ScheduleJob job = jobService.submit(ScheduleJob.singleClass(1, 7L, true));
+        awaitFinished(job);
+
+        assertEquals(ScheduleJob.Status.COMPLETED, job.getStatus());
+        assertSame(result, job.getResult());
+        assertTrue(job.isPersisted());
+        jobService.persist(job.getId());
+        verify(scheduleService, times(1)).saveSchedule(result);
+    }
+
+    @Test
+    void cancelStopsRunningJobAndDropsResult() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        when(scheduleService.solve(any())).thenAnswer(invocation -> {
+            ScheduleJob job = invocation.getArgument(0);
+            started.countDown();
+            // 模拟进化循环：每一代检查一次取消标记
+            int generation = 0;
+            while (!job.isCancelRequested()) {
+                job.reportGeneration(++generation, 0.1, 0.05);
+                Thread.sleep(5);
+            }
+            return Collections.emptyMap();
+        });
+
+        ScheduleJob job = jobService.submit(ScheduleJob.multiClass(3, true, null, true));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertSame(job, jobService.cancel(job.getId()));
+        awaitFinished(job);
+
+        assertEquals(ScheduleJob.Status.CANCELLED, job.getStatus());
+        assertNull(job.getResult());
+        verify(scheduleService, never()).saveSchedule(any());
+    }
+
+    @Test
+    void registryIsBoundedAndEvictsOldestFinishedJob() throws InterruptedException {
+        when(scheduleService.solve(any())).thenReturn(Collections.emptyMap());
+        ScheduleJob first = jobService.submit(ScheduleJob.singleClass(1, null, false));
+        awaitFinished(first);
+        ScheduleJob second = jobService.submit(ScheduleJob.singleClass(2, null, false));
+        awaitFinished(second);
+
+        // 已满时清理最早结束的任务
+        ScheduleJob third = jobService.submit(ScheduleJob.singleClass(3, null, false));
+        assertNull(jobService.getJob(first.getId()));
+        assertNotNull(jobService.getJob(second.getId()));
+        assertNotNull(jobService.getJob(third.getId()));
+    }
+
+    @Test
+    void registryRejectsSubmissionsWhenAllJobsAreActive() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        when(scheduleService.solve(any())).thenAnswer(invocation -> {
+            release.await();
+            return Collections.emptyMap();
+        });
+        jobService.submit(ScheduleJob.singleClass(1, null, false));
+        jobService.submit(ScheduleJob.singleClass(2, null, false));
+
+        assertThrows(IllegalStateException.class, () -> jobService.submit(ScheduleJob.singleClass(3, null, false)));
+        release.countDown();
+    }
+
+    @Test
+    void finishedJobsExpireAfterTtl() throws InterruptedException {
+        properties.getJob().setTtlMinutes(0);
+        when(scheduleService.solve(any())).thenReturn(Collections.emptyMap());
+        ScheduleJob job = jobService.submit(ScheduleJob.singleClass(1, null, false));
+        awaitFinished(job);
+        Thread.sleep(5);
+
+        assertNull(jobService.getJob(job.getId()));
+    }
+}
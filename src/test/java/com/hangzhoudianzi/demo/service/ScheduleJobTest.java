@@ -0,0 +1,56 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.pojo.dto.ScheduleProgressDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ScheduleJobTest {
+
+    @Test
+    void fullBufferDropsOldestEvents() {
+        ScheduleJob job = ScheduleJob.singleClass(1, null, false);
+        job.setProgressIntervalMillis(0);
+        ProgressBuffer buffer = new ProgressBuffer(4);
+        job.subscribe(buffer);
+
+        job.start();
+        for (int generation = 1; generation <= 10; generation++) {
+            job.reportGeneration(generation, 1.0 / (1 + 20 - generation), 0.01);
+        }
+
+        List<ScheduleProgressDTO> events = new ArrayList<>();
+        buffer.drainTo(events);
+        assertEquals(4, events.size());
+        assertEquals(7, events.get(0).getGeneration());
+        assertEquals(10, events.get(3).getGeneration());
+        assertEquals(10, events.get(3).getConflictCount());
+        assertEquals(7, buffer.droppedCount());
+    }
+
+    @Test
+    void generationEventsAreThrottledButFinalEventIsNot() {
+        ScheduleJob job = ScheduleJob.singleClass(1, null, false);
+        job.setProgressIntervalMillis(60_000);
+        ProgressBuffer buffer = new ProgressBuffer(16);
+        job.subscribe(buffer);
+
+        job.start();
+        for (int generation = 1; generation <= 10; generation++) {
+            job.reportGeneration(generation, 0.5, 0.25);
+        }
+        job.complete(null);
+
+        List<ScheduleProgressDTO> events = new ArrayList<>();
+        buffer.drainTo(events);
+        // 开始事件、第1代、结束事件
+        assertEquals(3, events.size());
+        assertEquals("RUNNING", events.get(0).getStatus());
+        assertEquals(1, events.get(1).getGeneration());
+        assertEquals("COMPLETED", events.get(2).getStatus());
+        assertEquals(10, events.get(2).getGeneration());
+    }
+}
@@ -0,0 +1,72 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.config.ScheduleProperties;
+import com.hangzhoudianzi.demo.pojo.resource.Timetable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScheduleResultCacheTest {
+    private ScheduleProperties properties;
+    private ScheduleResultCache cache;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ScheduleProperties();
+        properties.getCache().setMaxEntries(2);
+        cache = new ScheduleResultCache();
+        ReflectionTestUtils.setField(cache, "scheduleProperties", properties);
+    }
+
+    private static Map<Integer, List<Timetable>> result(String courseId) {
+        Timetable timetable = new Timetable();
+        timetable.setCourseId(courseId);
+        return Collections.singletonMap(1, Collections.singletonList(timetable));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedWhenFull() {
+        cache.put("a", result("A"));
+        cache.put("b", result("B"));
+        assertNotNull(cache.get("a"));
+        cache.put("c", result("C"));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void expiresEntriesAfterTtl() throws InterruptedException {
+        properties.getCache().setTtlMinutes(0);
+        cache.put("a", result("A"));
+        Thread.sleep(5);
+
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    void returnsCopies() {
+        cache.put("a", result("A"));
+        cache.get("a").get(1).get(0).setCourseId("X");
+
+        assertEquals("A", cache.get("a").get(1).get(0).getCourseId());
+    }
+
+    @Test
+    void fingerprintSeparatesAdjacentValues() {
+        String ab = new ScheduleFingerprint().add("x", "ab").add("y", "c").value();
+        String a = new ScheduleFingerprint().add("x", "a").add("y", "bc").value();
+        assertNotEquals(ab, a);
+        assertEquals(ab, new ScheduleFingerprint().add("x", "ab").add("y", "c").value());
+        assertNotEquals(new ScheduleFingerprint().add("x", null).value(),
+                new ScheduleFingerprint().add("x", "null").value());
+    }
+}
@@ -0,0 +1,267 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.config.ScheduleProperties;
+import com.hangzhoudianzi.demo.mapper.TimetableMapper;
+import com.hangzhoudianzi.demo.pojo.people.Course;
+import com.hangzhoudianzi.demo.pojo.people.Teacher;
+import com.hangzhoudianzi.demo.pojo.resource.Classroom;
+import com.hangzhoudianzi.demo.pojo.resource.Timetable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ScheduleServiceTest {
+    private ScheduleService scheduleService;
+    private List<Course> courses;
+    private SimpleMeterRegistry registry;
+    private ScheduleProperties properties;
+    private TimetableMapper timetableMapper;
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void setUp() {
+        // 课程多、教师少，冲突无法完全消除，进化会一直持续到截止时间
+        courses = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Course course = new Course();
+            course.setId("C" + i);
+            course.setCourseName("课程" + i);
+            course.setClassSize("60");
+            courses.add(course);
+        }
+        List<Teacher> teachers = new ArrayList<>();
+        Teacher teacher = new Teacher();
+        teacher.setId("T0");
+        teachers.add(teacher);
+        List<Classroom> classrooms = new ArrayList<>();
+        Classroom classroom = new Classroom();
+        classroom.setId("R0");
+        classroom.setCapacity(30);
+        classrooms.add(classroom);
+
+        CourseService courseService = mock(CourseService.class);
+        TeacherService teacherService = mock(TeacherService.class);
+        ClassroomService classroomService = mock(ClassroomService.class);
+        timetableMapper = mock(TimetableMapper.class);
+        when(courseService.list()).thenReturn(courses);
+        when(teacherService.list()).thenReturn(teachers);
+        when(classroomService.list()).thenReturn(classrooms);
+        when(timetableMapper.getTimetablesByClassId(any())).thenReturn(Collections.emptyList());
+        when(timetableMapper.insertTimetables(any(), anyLong()))
+                .thenAnswer(invocation -> invocation.<List<?>>getArgument(0).size());
+        when(timetableMapper.getVersion(any())).thenReturn(1L);
+
+        properties = new ScheduleProperties();
+        ScheduleResultCache cache = new ScheduleResultCache();
+        ReflectionTestUtils.setField(cache, "scheduleProperties", properties);
+
+        scheduleService = new ScheduleService();
+        ReflectionTestUtils.setField(scheduleService, "courseService", courseService);
+        ReflectionTestUtils.setField(scheduleService, "teacherService", teacherService);
+        ReflectionTestUtils.setField(scheduleService, "classroomService", classroomService);
+        ReflectionTestUtils.setField(scheduleService, "timetableMapper", timetableMapper);
+        ReflectionTestUtils.setField(scheduleService, "scheduleProperties", properties);
+        ReflectionTestUtils.setField(scheduleService, "scheduleSettingsService", mock(ScheduleSettingsService.class));
+        ReflectionTestUtils.setField(scheduleService, "scheduleResultCache", cache);
+        registry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(scheduleService, "scheduleMetrics", new ScheduleMetrics(registry));
+        transactionManager = mock(PlatformTransactionManager.class);
+        ReflectionTestUtils.setField(scheduleService, "transactionTemplate", new TransactionTemplate(transactionManager));
+        TimetableVersionCollector collector = new TimetableVersionCollector();
+        ReflectionTestUtils.setField(collector, "timetableMapper", timetableMapper);
+        ReflectionTestUtils.setField(scheduleService, "timetableVersionCollector", collector);
+    }
+
+    @Test
+    void saveWritesEachClassAsNewVersionInBatchesWithinOneTransaction() {
+        properties.getPersist().setBatchSize(4);
+        Map<Integer, List<Timetable>> result = scheduleService.solve(ScheduleJob.multiClass(2, true, 5L, false));
+        scheduleService.saveSchedule(result);
+
+        int batches = 0;
+        for (List<Timetable> rows : result.values()) {
+            batches += (rows.size() + 3) / 4;
+        }
+        verify(timetableMapper, times(batches)).insertTimetables(any(), eq(1L));
+        verify(timetableMapper, never()).insertTimetable(any());
+        verify(timetableMapper, never()).deleteByClassId(any());
+        verify(timetableMapper, times(2)).advanceVersion(any());
+        verify(transactionManager, times(2)).commit(any());
+        verify(transactionManager, never()).rollback(any());
+        // 旧版本在提交后由后台删除
+        verify(timetableMapper, timeout(1_000).times(2)).deleteStaleVersions(any());
+    }
+
+    @Test
+    void rescheduleCarriesKeptRowsIntoNewVersion() throws InterruptedException {
+        SyntheticDataset dataset = SyntheticDataset.generate(SyntheticDataset.SMALL, 11L);
+        ScheduleProperties properties = new ScheduleProperties();
+        properties.getCache().setEnabled(false);
+        ScheduleService service = dataset.newScheduleService(properties);
+        service.saveSchedule(service.solve(ScheduleJob.singleClass(1, 11L, false)));
+        List<Timetable> published = dataset.byClass(1);
+        assertFalse(published.isEmpty());
+
+        String changed = published.get(0).getCourseId();
+        assertEquals(1, service.reschedule(1, Collections.singletonList(changed), 11L, ScheduleJob.Engine.GA));
+
+        // 未变化的记录在数据库内带入新版本，只有变化的一条从应用程序写入
+        TimetableMapper mapper = (TimetableMapper) ReflectionTestUtils.getField(service, "timetableMapper");
+        verify(mapper).carryForward(eq(1), eq(1L), eq(2L), any());
+        verify(mapper).insertTimetables(argThat(rows -> rows.size() == 1), eq(2L));
+
+        // 新版本是完整的课表，未变化的记录原样带入
+        List<Timetable> current = dataset.byClass(1);
+        assertEquals(published.size(), current.size());
+        for (Timetable row : published.subList(1, published.size())) {
+            assertTrue(current.stream().anyMatch(t -> t.getCourseId().equals(row.getCourseId())
+                    && t.getPeriodInfo().equals(row.getPeriodInfo())
+                    && t.getDayOfWeek().equals(row.getDayOfWeek())), row.getCourseId());
+        }
+        // 旧版本在后台删除
+        for (int i = 0; i < 100 && dataset.timetables.size() > current.size(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(current.size(), dataset.timetables.size());
+    }
+
+    @Test
+    void rescheduleAbortsWhenClassWasPublishedMeanwhile() {
+        SyntheticDataset dataset = SyntheticDataset.generate(SyntheticDataset.SMALL, 12L);
+        ScheduleProperties properties = new ScheduleProperties();
+        properties.getCache().setEnabled(false);
+        ScheduleService service = dataset.newScheduleService(properties);
+        Map<Integer, List<Timetable>> result = service.solve(ScheduleJob.singleClass(1, 12L, false));
+        service.saveSchedule(result);
+        List<Timetable> published = dataset.byClass(1);
+
+        // 读取现有记录之后、保存之前，另一次保存发布了班级的新版本
+        TimetableMapper mapper = (TimetableMapper) ReflectionTestUtils.getField(service, "timetableMapper");
+        AtomicBoolean concurrentSave = new AtomicBoolean();
+        doAnswer(invocation -> {
+            List<Timetable> rows = dataset.byClass(invocation.getArgument(0));
+            if (concurrentSave.compareAndSet(false, true)) {
+                service.saveSchedule(result);
+            }
+            return rows;
+        }).when(mapper).getTimetablesByClassId(any());
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> service.reschedule(1,
+                Collections.singletonList(published.get(0).getCourseId()), 12L, ScheduleJob.Engine.GA));
+        assertTrue(e.getMessage().contains("已被更新"), e.getMessage());
+        verify(mapper, never()).carryForward(any(), anyLong(), anyLong(), any());
+        // 并发保存的版本原样保留，没有重复带入的记录
+        assertEquals(published.size(), dataset.byClass(1).size());
+    }
+
+    @Test
+    void failedInsertRollsBackTheClass() {
+        Map<Integer, List<Timetable>> result = scheduleService.solve(ScheduleJob.singleClass(1, 5L, false));
+        doThrow(new IllegalStateException("连接断开")).when(timetableMapper).insertTimetables(any(), anyLong());
+
+        assertThrows(RuntimeException.class, () -> scheduleService.saveSchedule(result));
+        verify(timetableMapper).advanceVersion(1);
+        verify(transactionManager).rollback(any());
+        verify(transactionManager, never()).commit(any());
+        verify(timetableMapper, never()).deleteStaleVersions(any());
+    }
+
+    @Test
+    void identicalInputsHitCacheAndChangedRowsMiss() {
+        ScheduleJob first = ScheduleJob.singleClass(1, 9L, false);
+        Map<Integer, List<Timetable>> result = scheduleService.solve(first);
+        assertFalse(first.isCacheHit());
+
+        ScheduleJob second = ScheduleJob.singleClass(1, 9L, false);
+        assertEquals(result, scheduleService.solve(second));
+        assertTrue(second.isCacheHit());
+
+        // 种子不同、课程字段变化都不能命中
+        ScheduleJob otherSeed = ScheduleJob.singleClass(1, 10L, false);
+        scheduleService.solve(otherSeed);
+        assertFalse(otherSeed.isCacheHit());
+
+        courses.get(3).setPriority("1");
+        ScheduleJob changed = ScheduleJob.singleClass(1, 9L, false);
+        scheduleService.solve(changed);
+        assertFalse(changed.isCacheHit());
+
+        // 不指定种子的排课不缓存
+        ScheduleJob unseeded = ScheduleJob.singleClass(1, null, false);
+        scheduleService.solve(unseeded);
+        scheduleService.solve(unseeded);
+        assertFalse(unseeded.isCacheHit());
+    }
+
+    @Test
+    void solveRecordsPhaseMetrics() {
+        ScheduleJob job = ScheduleJob.singleClass(1, 3L, false);
+        Map<Integer, List<Timetable>> result = scheduleService.solve(job);
+        scheduleService.saveSchedule(result);
+
+        assertEquals(1, registry.get("schedule.solve.duration").tag("phase", "load").timer().count());
+        assertEquals(1, registry.get("schedule.solve.duration").tag("phase", "evolve").timer().count());
+        assertEquals(1, registry.get("schedule.solve.duration").tag("phase", "persist").timer().count());
+        assertEquals(job.getGeneration(), registry.get("schedule.generations").counter().count());
+        assertEquals(job.getEvaluations(), registry.get("schedule.evaluations").counter().count());
+        assertEquals(job.getConflictCount(), registry.get("schedule.conflicts").summary().totalAmount());
+        assertEquals(result.get(1).size(), registry.get("schedule.rows.written").summary().totalAmount());
+
+        // 命中缓存时不再计入加载和进化
+        scheduleService.solve(ScheduleJob.singleClass(1, 3L, false));
+        assertEquals(1, registry.get("schedule.cache.hits").counter().count());
+        assertEquals(1, registry.get("schedule.solve.duration").tag("phase", "evolve").timer().count());
+    }
+
+    @Test
+    void parallelClassesRecordTotalsAcrossClasses() {
+        ScheduleJob job = ScheduleJob.multiClass(2, false, 4L, false);
+        scheduleService.solve(job);
+
+        // 每个班级至少进化一代，累计值大于最后报告进度的那个班级的代数
+        assertTrue(registry.get("schedule.generations").counter().count() > job.getGeneration());
+        assertEquals(job.getTotalGenerations(), registry.get("schedule.generations").counter().count());
+        assertEquals(1, registry.get("schedule.conflicts").summary().count());
+        assertEquals(job.getTotalConflicts(), registry.get("schedule.conflicts").summary().totalAmount());
+    }
+
+    @Test
+    void anytimeModeRunsUntilDeadlineAndReportsWork() {
+        ScheduleJob job = ScheduleJob.singleClass(1, 1L, false).withTimeBudget(400L);
+        long start = System.currentTimeMillis();
+        assertEquals(1, scheduleService.solve(job).size());
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue(elapsed >= 400 && elapsed < 5_000, "elapsed " + elapsed);
+        // 固定模式最多20代，截止时间模式按预算继续进化
+        assertTrue(job.getGeneration() > 20, "generation " + job.getGeneration());
+        assertTrue(job.getPopulationSize() >= 30);
+        assertTrue(job.getEvaluations() >= (long) job.getGeneration() * 28);
+    }
+
+    @Test
+    void populationSizeAdaptsToEvaluationSpeed() {
+        // 评估很慢或没有剩余时间时使用默认大小
+        assertEquals(30, ScheduleService.adaptivePopulationSize(1_000_000_000L, 1_000_000_000L, 1));
+        assertEquals(30, ScheduleService.adaptivePopulationSize(1_000L, -5L, 4));
+        // 100代、每代100毫秒、每次评估1毫秒：单线程100个，4线程400个
+        assertEquals(100, ScheduleService.adaptivePopulationSize(1_000_000L, 10_000_000_000L, 1));
+        assertEquals(400, ScheduleService.adaptivePopulationSize(1_000_000L, 10_000_000_000L, 4));
+        assertEquals(1000, ScheduleService.adaptivePopulationSize(1L, 10_000_000_000L, 1));
+    }
+}
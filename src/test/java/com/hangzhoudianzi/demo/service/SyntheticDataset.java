@@ -0,0 +1,315 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.config.ScheduleProperties;
+import com.hangzhoudianzi.demo.mapper.TimetableMapper;
+import com.hangzhoudianzi.demo.pojo.people.Course;
+import com.hangzhoudianzi.demo.pojo.people.Student;
+import com.hangzhoudianzi.demo.pojo.people.Teacher;
+import com.hangzhoudianzi.demo.pojo.resource.Classroom;
+import com.hangzhoudianzi.demo.pojo.resource.ScheduleSettings;
+import com.hangzhoudianzi.demo.pojo.resource.Timetable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.BeanUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 按规模生成的排课测试数据
+ * <p>
+ * 字段分布参照真实数据：大部分课程1-16周，少数半学期课程；连排以2节为主；
+ * 课程性质决定要求的教室类型，实验课要实验室、体育课要体育场；教室容量覆盖小班到大教室。
+ * 同一种子生成的数据完全相同。
+ */
+class SyntheticDataset {
+    private static final String[] DEPARTMENTS = {"计算机学院", "电子信息学院", "自动化学院", "经济学院", "外国语学院", "理学院"};
+    private static final String[] NATURES = {"必修", "必修", "必修", "选修", "选修", "实验", "体育"};
+    private static final String[] LECTURE_ROOM_TYPES = {"普通教室", "多媒体教室"};
+    private static final String LAB_ROOM_TYPE = "实验室";
+    private static final String PE_ROOM_TYPE = "体育场";
+
+    /**
+     * 数据规模
+     */
+    static class Scale {
+        final String name;
+        final int courses;
+        final int teachers;
+        final int rooms;
+        final int classes;
+
+        Scale(String name, int courses, int teachers, int rooms, int classes) {
+            this.name = name;
+            this.courses = courses;
+            this.teachers = teachers;
+            this.rooms = rooms;
+            this.classes = classes;
+        }
+
+        @Override
+        public String toString() {
+            return name + "(" + courses + "门课程/" + teachers + "名教师/" + rooms + "间教室/" + classes + "个班级)";
+        }
+    }
+
+    static final Scale SMALL = new Scale("small", 200, 40, 20, 4);
+    static final Scale MEDIUM = new Scale("medium", 2_000, 300, 80, 20);
+    static final Scale LARGE = new Scale("large", 20_000, 3_000, 800, 200);
+
+    final Scale scale;
+    final List<Course> courses = new ArrayList<>();
+    final List<Teacher> teachers = new ArrayList<>();
+    final List<Classroom> classrooms = new ArrayList<>();
+    final List<Student> students = new ArrayList<>();
+    final ScheduleSettings settings;
+    // 内存中的课表，供模拟的 TimetableMapper 读写：所有版本的记录、每条记录的版本、每个班级当前发布的版本
+    final List<Timetable> timetables = new CopyOnWriteArrayList<>();
+    private final Map<Timetable, Long> rowVersions = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final Map<Integer, Long> versions = new ConcurrentHashMap<>();
+
+    private SyntheticDataset(Scale scale, ScheduleSettings settings) {
+        this.scale = scale;
+        this.settings = settings;
+    }
+
+    static SyntheticDataset generate(Scale scale, long seed) {
+        Random random = new Random(seed);
+        SyntheticDataset dataset = new SyntheticDataset(scale, defaultSettings());
+
+        for (int i = 0; i < scale.teachers; i++) {
+            Teacher teacher = new Teacher();
+            teacher.setId("T" + i);
+            teacher.setName("教师" + i);
+            teacher.setDepartment(DEPARTMENTS[random.nextInt(DEPARTMENTS.length)]);
+            teacher.setGender(random.nextBoolean() ? "男" : "女");
+            dataset.teachers.add(teacher);
+        }
+
+        // 教室：约七成普通教室，实验室和体育场各占一部分
+        for (int i = 0; i < scale.rooms; i++) {
+            Classroom classroom = new Classroom();
+            classroom.setId("R" + i);
+            classroom.setName("教室" + i);
+            classroom.setBuilding((i % 12 + 1) + "号楼");
+            classroom.setFloor(i % 6 + 1);
+            classroom.setCampus(i % 3 == 0 ? "下沙校区" : "文一校区");
+            int kind = random.nextInt(10);
+            if (kind < 7) {
+                classroom.setType(LECTURE_ROOM_TYPES[random.nextInt(LECTURE_ROOM_TYPES.length)]);
+                classroom.setCapacity(pick(random, 40, 60, 60, 90, 120, 150));
+            } else if (kind < 9) {
+                classroom.setType(LAB_ROOM_TYPE);
+                classroom.setCapacity(pick(random, 30, 40, 50));
+            } else {
+                classroom.setType(PE_ROOM_TYPE);
+                classroom.setCapacity(pick(random, 60, 120));
+            }
+            dataset.classrooms.add(classroom);
+        }
+
+        for (int i = 0; i < scale.courses; i++) {
+            Course course = new Course();
+            course.setId("C" + i);
+            course.setSemester("2024-2025-1");
+            course.setCourseName("课程" + i);
+            course.setTeacherId("T" + random.nextInt(scale.teachers));
+            String nature = NATURES[random.nextInt(NATURES.length)];
+            course.setCourseNature(nature);
+            course.setDepartment(DEPARTMENTS[random.nextInt(DEPARTMENTS.length)]);
+
+            // 周次：大部分1-16周，少数前半学期或后半学期
+            int weeks = random.nextInt(10);
+            if (weeks == 0) {
+                course.setBeginWeek(9);
+                course.setEndWeek(16);
+            } else if (weeks >= 8) {
+                course.setBeginWeek(1);
+                course.setEndWeek(8);
+            } else {
+                course.setBeginWeek(1);
+                course.setEndWeek(16);
+            }
+
+            // 连排节数以2节为主，实验课多为3-4节
+            if ("实验".equals(nature)) {
+                course.setConsecutiveSections(pick(random, 2, 3, 4));
+                course.setClassroomType(LAB_ROOM_TYPE);
+                course.setClassSize(String.valueOf(pick(random, 30, 40)));
+            } else if ("体育".equals(nature)) {
+                course.setConsecutiveSections(2);
+                course.setClassroomType(PE_ROOM_TYPE);
+                course.setClassSize(String.valueOf(pick(random, 30, 60)));
+            } else {
+                course.setConsecutiveSections(pick(random, 1, 2, 2, 2, 3));
+                course.setClassroomType(LECTURE_ROOM_TYPES[random.nextInt(LECTURE_ROOM_TYPES.length)]);
+                course.setClassSize(String.valueOf(30 + random.nextInt(9) * 10));
+            }
+            course.setCredit(course.getConsecutiveSections() * (course.getEndWeek() - course.getBeginWeek() + 1) / 16.0);
+            course.setCreditHourType(course.getConsecutiveSections() > 2 ? "理论+实践" : "理论");
+            course.setPriority(String.valueOf(1 + random.nextInt(5)));
+            int classId = 1 + random.nextInt(scale.classes);
+            course.setClassesId(String.valueOf(classId));
+            course.setClassesName("班级" + classId);
+            dataset.courses.add(course);
+        }
+
+        int studentId = 1;
+        for (int c = 1; c <= scale.classes; c++) {
+            int size = 25 + random.nextInt(20);
+            for (int s = 0; s < size; s++) {
+                Student student = new Student();
+                student.setId(studentId);
+                student.setName("学生" + studentId++);
+                student.setGrade("2024");
+                student.setMajor(DEPARTMENTS[c % DEPARTMENTS.length]);
+                student.setClassName("班级" + c);
+                dataset.students.add(student);
+            }
+        }
+        return dataset;
+    }
+
+    private static int pick(Random random, int... values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    /**
+     * 常见学校的排课设置：每天8节，教师每天最多6节、每周最多16节
+     */
+    private static ScheduleSettings defaultSettings() {
+        ScheduleSettings settings = new ScheduleSettings();
+        settings.setId(1);
+        settings.setSchedulingUnit("teaching_class");
+        settings.setTotalPeriodsPerDay(ScheduleService.PERIODS_PER_DAY);
+        settings.setTwoPeriodBlockStart(Arrays.asList(1, 3, 5, 7));
+        settings.setFourPeriodBlockStart(Arrays.asList(1, 5));
+        settings.setTeacherMaxPeriodsPerDay(6);
+        settings.setTeacherMaxPeriodsPerWeek(16);
+        settings.setScheduleAfterPeClass(true);
+        settings.setInsufficientArrangementMethod(ScheduleSettings.InsufficientArrangementMethod.REDUCE_CONSECUTIVE_PERIODS);
+        settings.setAutoScheduleAssignLocation(true);
+        return settings;
+    }
+
+    /**
+     * 创建只使用内存数据的排课服务，不启动Spring、不连接数据库
+     */
+    ScheduleService newScheduleService(ScheduleProperties properties) {
+        CourseService courseService = mock(CourseService.class);
+        TeacherService teacherService = mock(TeacherService.class);
+        ClassroomService classroomService = mock(ClassroomService.class);
+        ScheduleSettingsService scheduleSettingsService = mock(ScheduleSettingsService.class);
+        when(courseService.list()).thenReturn(courses);
+        when(teacherService.list()).thenReturn(teachers);
+        when(classroomService.list()).thenReturn(classrooms);
+        when(scheduleSettingsService.getActiveSettings()).thenReturn(settings);
+
+        AtomicInteger nextId = new AtomicInteger(1);
+        TimetableMapper timetableMapper = mock(TimetableMapper.class);
+        when(timetableMapper.getAllTimetables()).thenAnswer(invocation -> timetables.stream()
+                .filter(this::isCurrent)
+                .collect(Collectors.toList()));
+        when(timetableMapper.getTimetablesByClassId(any())).thenAnswer(invocation -> byClass(invocation.getArgument(0)));
+        when(timetableMapper.insertTimetable(any())).thenAnswer(invocation -> {
+            Timetable timetable = invocation.getArgument(0);
+            store(timetable, versions.getOrDefault(timetable.getClassId(), 0L), nextId);
+            return 1;
+        });
+        when(timetableMapper.insertTimetables(any(), anyLong())).thenAnswer(invocation -> {
+            List<Timetable> rows = invocation.getArgument(0);
+            for (Timetable timetable : rows) {
+                // 存一份副本，不修改调用方的对象
+                Timetable copy = new Timetable();
+                BeanUtils.copyProperties(timetable, copy);
+                store(copy, invocation.getArgument(1), nextId);
+            }
+            return rows.size();
+        });
+        when(timetableMapper.advanceVersion(any())).thenAnswer(invocation -> {
+            versions.merge(invocation.getArgument(0), 1L, Long::sum);
+            return 1;
+        });
+        when(timetableMapper.carryForward(any(), anyLong(), anyLong(), any())).thenAnswer(invocation -> {
+            Integer classId = invocation.getArgument(0);
+            long fromVersion = invocation.getArgument(1);
+            Collection<Integer> excludedIds = invocation.getArgument(3);
+            List<Timetable> rows = timetables.stream()
+                    .filter(t -> Objects.equals(t.getClassId(), classId)
+                            && Objects.equals(rowVersions.get(t), fromVersion)
+                            && !excludedIds.contains(t.getId()))
+                    .collect(Collectors.toList());
+            for (Timetable timetable : rows) {
+                Timetable copy = new Timetable();
+                BeanUtils.copyProperties(timetable, copy);
+                store(copy, invocation.getArgument(2), nextId);
+            }
+            return rows.size();
+        });
+        when(timetableMapper.advanceVersionFrom(any(), anyLong())).thenAnswer(invocation -> {
+            Integer classId = invocation.getArgument(0);
+            long expected = invocation.getArgument(1);
+            if (expected == 0) {
+                return versions.putIfAbsent(classId, 1L) == null ? 1 : 0;
+            }
+            return versions.replace(classId, expected, expected + 1) ? 1 : 0;
+        });
+        when(timetableMapper.getVersion(any())).thenAnswer(invocation -> versions.get(invocation.<Integer>getArgument(0)));
+        when(timetableMapper.deleteStaleVersions(any())).thenAnswer(invocation -> {
+            Integer classId = invocation.getArgument(0);
+            List<Timetable> rows = timetables.stream()
+                    .filter(t -> Objects.equals(t.getClassId(), classId) && !isCurrent(t))
+                    .collect(Collectors.toList());
+            timetables.removeAll(rows);
+            return rows.size();
+        });
+
+        ScheduleResultCache cache = new ScheduleResultCache();
+        ReflectionTestUtils.setField(cache, "scheduleProperties", properties);
+
+        ScheduleService scheduleService = new ScheduleService();
+        ReflectionTestUtils.setField(scheduleService, "courseService", courseService);
+        ReflectionTestUtils.setField(scheduleService, "teacherService", teacherService);
+        ReflectionTestUtils.setField(scheduleService, "classroomService", classroomService);
+        ReflectionTestUtils.setField(scheduleService, "timetableMapper", timetableMapper);
+        ReflectionTestUtils.setField(scheduleService, "scheduleProperties", properties);
+        ReflectionTestUtils.setField(scheduleService, "scheduleSettingsService", scheduleSettingsService);
+        ReflectionTestUtils.setField(scheduleService, "scheduleResultCache", cache);
+        ReflectionTestUtils.setField(scheduleService, "scheduleMetrics", new ScheduleMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(scheduleService, "transactionTemplate",
+                new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        TimetableVersionCollector collector = new TimetableVersionCollector();
+        ReflectionTestUtils.setField(collector, "timetableMapper", timetableMapper);
+        ReflectionTestUtils.setField(scheduleService, "timetableVersionCollector", collector);
+        return scheduleService;
+    }
+
+    private void store(Timetable timetable, long version, AtomicInteger nextId) {
+        timetable.setId(nextId.getAndIncrement());
+        rowVersions.put(timetable, version);
+        timetables.add(timetable);
+    }
+
+    private boolean isCurrent(Timetable timetable) {
+        return Objects.equals(rowVersions.get(timetable), versions.getOrDefault(timetable.getClassId(), 0L));
+    }
+
+    /**
+     * 班级当前版本的课表
+     */
+    List<Timetable> byClass(Integer classId) {
+        return timetables.stream()
+                .filter(t -> Objects.equals(t.getClassId(), classId) && isCurrent(t))
+                .collect(Collectors.toList());
+    }
+}
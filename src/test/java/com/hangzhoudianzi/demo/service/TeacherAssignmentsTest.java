@@ -0,0 +1,87 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.pojo.people.Course;
+import com.hangzhoudianzi.demo.pojo.people.Teacher;
+import com.hangzhoudianzi.demo.pojo.resource.Classroom;
+import com.hangzhoudianzi.demo.pojo.resource.Timetable;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class TeacherAssignmentsTest {
+
+    /**
+     * 逐个教师按原评分规则打分，分数相同时取靠前的教师
+     */
+    private static int bruteForceBest(ScheduleProblem problem, List<Timetable> timetables, Course course) {
+        int best = -1;
+        int bestScore = Integer.MIN_VALUE;
+        for (int t = 0; t < problem.teacherCount(); t++) {
+            String teacherId = problem.teacher(t).getId();
+            int score = 100;
+            if (teacherId.equals(course.getTeacherId())) {
+                score += 50;
+            }
+            boolean sameName = false;
+            for (Timetable timetable : timetables) {
+                if (teacherId.equals(timetable.getTeacherId())) {
+                    score -= 10;
+                    int assigned = problem.indexOfCourse(timetable.getCourseId());
+                    if (assigned >= 0 && problem.course(assigned).getCourseName().equals(course.getCourseName())) {
+                        sameName = true;
+                    }
+                }
+            }
+            if (sameName) {
+                score += 30;
+            }
+            if (score > bestScore) {
+                best = t;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    @Test
+    void bestTeachersMatchesPerTeacherScoring() {
+        Random random = new Random(11);
+        for (int round = 0; round < 30; round++) {
+            int teacherCount = 1 + random.nextInt(8);
+            List<Teacher> teachers = new ArrayList<>();
+            for (int t = 0; t < teacherCount; t++) {
+                Teacher teacher = new Teacher();
+                teacher.setId("T" + t);
+                teachers.add(teacher);
+            }
+            List<Course> courses = new ArrayList<>();
+            for (int c = 0; c < 30; c++) {
+                Course course = new Course();
+                course.setId("C" + c);
+                course.setCourseName("课程" + random.nextInt(6));
+                // 部分课程的原教师不在教师列表中
+                course.setTeacherId("T" + random.nextInt(teacherCount + 2));
+                courses.add(course);
+            }
+            List<Timetable> timetables = new ArrayList<>();
+            for (int i = random.nextInt(20); i > 0; i--) {
+                Timetable timetable = new Timetable();
+                timetable.setCourseId("C" + random.nextInt(30));
+                timetable.setTeacherId("T" + random.nextInt(teacherCount + 1));
+                timetables.add(timetable);
+            }
+            ScheduleProblem problem = new ScheduleProblem(courses, teachers, Collections.<Classroom>emptyList());
+
+            int[] expected = new int[courses.size()];
+            for (int c = 0; c < courses.size(); c++) {
+                expected[c] = bruteForceBest(problem, timetables, courses.get(c));
+            }
+            assertArrayEquals(expected, new TeacherAssignments(problem, timetables).bestTeachers());
+        }
+    }
+}
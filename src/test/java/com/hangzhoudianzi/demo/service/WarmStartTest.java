@@ -0,0 +1,91 @@
+package com.hangzhoudianzi.demo.service;
+
+import com.hangzhoudianzi.demo.config.ScheduleProperties;
+import com.hangzhoudianzi.demo.pojo.resource.Timetable;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import static com.hangzhoudianzi.demo.service.IncrementalFitnessTest.randomIndex;
+import static org.junit.jupiter.api.Assertions.*;
+
+class WarmStartTest {
+
+    private static Timetable row(int id, String courseId, String teacherId, String roomId, int day, String periods) {
+        Timetable timetable = new Timetable();
+        timetable.setId(id);
+        timetable.setClassId(1);
+        timetable.setCourseId(courseId);
+        timetable.setTeacherId(teacherId);
+        timetable.setClassroomId(roomId);
+        timetable.setDayOfWeek(day);
+        timetable.setPeriodInfo(periods);
+        return timetable;
+    }
+
+    private static List<Timetable> existingRows() {
+        List<Timetable> rows = new ArrayList<>();
+        for (int c = 0; c < 8; c++) {
+            rows.add(row(c + 1, "C" + c, "T" + (c % 3), "R" + (c % 4), c % 5 + 1, (c % 8 + 1) + ""));
+        }
+        // 教室已不存在的记录作废，课程重新安排
+        rows.add(row(9, "C8", "T0", "R99", 2, "7,8"));
+        return rows;
+    }
+
+    private static WarmStart warmStart(ScheduleProblem problem) {
+        return WarmStart.fromTimetables(problem, existingRows(), Arrays.asList("C2", "C10"),
+                new int[problem.courseCount()], new SplittableRandom(1));
+    }
+
+    @Test
+    void unaffectedRowsArePinnedAndChangedCoursesAreFree() {
+        ScheduleProblem problem = randomIndex(new Random(1), 12, 3, 4, 1).problem;
+        WarmStart warmStart = warmStart(problem);
+
+        // 8条有效记录中C2被修改，固定7条；C2、新增的C10和作废记录的C8待排
+        assertEquals(10, warmStart.template.size());
+        assertEquals(3, warmStart.freeGenes.length);
+        assertEquals(Arrays.asList(3, 9), Arrays.asList(warmStart.staleRows.get(0).getId(),
+                warmStart.staleRows.get(1).getId()));
+        for (int i = 0; i < warmStart.template.size(); i++) {
+            String courseId = problem.course(warmStart.template.courses[i]).getId();
+            boolean free = courseId.equals("C2") || courseId.equals("C8") || courseId.equals("C10");
+            assertEquals(!free, warmStart.isPinned(i), courseId);
+        }
+    }
+
+    @Test
+    void localSearchAndConstraintSolverKeepPinnedGenes() {
+        ScheduleProblem problem = randomIndex(new Random(2), 12, 3, 4, 1).problem;
+        WarmStart warmStart = warmStart(problem);
+        ScheduleIndex index = new ScheduleIndex(problem, warmStart, 1);
+        ScheduleJob job = ScheduleJob.singleClass(1, null, false);
+
+        ScheduleProperties.LocalSearch settings = new ScheduleProperties.LocalSearch();
+        settings.setMethod(ScheduleProperties.LocalSearch.Method.ANNEALING);
+        settings.setMaxIterations(5_000);
+        ScheduleService.Chromosome polished = new LocalSearch(index, settings, new SplittableRandom(3))
+                .run(warmStart.newChromosome(index.problem, new SplittableRandom(4)), job);
+        ScheduleService.Chromosome solved = new ConstraintSolver(index, null, Collections.emptyList(),
+                new SplittableRandom(5)).solve(10_000, 100, job);
+        assertNotNull(solved);
+
+        ScheduleService.Chromosome template = warmStart.template;
+        for (ScheduleService.Chromosome chromosome : Arrays.asList(polished, solved)) {
+            assertArrayEquals(template.courses, chromosome.courses);
+            for (int i = 0; i < template.size(); i++) {
+                if (warmStart.isPinned(i)) {
+                    assertEquals(template.days[i], chromosome.days[i]);
+                    assertEquals(template.periods[i], chromosome.periods[i]);
+                    assertEquals(template.rooms[i], chromosome.rooms[i]);
+                }
+            }
+        }
+    }
+}